@@ -0,0 +1,79 @@
+package lol.smarton.lox.bench;
+
+import lol.smarton.lox.Interpreter;
+import lol.smarton.lox.Parser;
+import lol.smarton.lox.Reporter;
+import lol.smarton.lox.Resolver;
+import lol.smarton.lox.Scanner;
+import lol.smarton.lox.ast.Stmt;
+import lol.smarton.lox.nodes.NodeInterpreter;
+import lol.smarton.lox.nodes.StatementNode;
+import lol.smarton.lox.vm.CompiledFunction;
+import lol.smarton.lox.vm.Compiler;
+import lol.smarton.lox.vm.VM;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tight numeric loop run on each engine. Compare gc.alloc.rate.norm
+ * across engines to see what the unboxed paths save.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class NumericBenchmark {
+    private static final String SOURCE = """
+        fun sum(n) {
+          var total = 0;
+          for (var i = 0; i < n; i = i + 1) {
+            total = total + i * 2 - 1;
+          }
+          return total;
+        }
+        var result = sum(10000);
+        """;
+
+    @Param({"TREE", "VM", "NODES"})
+    public String engine;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+    private CompiledFunction script;
+    private VM vm;
+    private StatementNode[] nodes;
+    private NodeInterpreter nodeInterpreter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var reporter = new Reporter();
+        statements = new Parser(new Scanner(SOURCE, reporter).scanTokens(), reporter).parse();
+        switch (engine) {
+            case "TREE" -> {
+                interpreter = new Interpreter();
+                new Resolver(interpreter).resolve(statements);
+            }
+            case "VM" -> {
+                vm = new VM();
+                script = new Compiler(reporter).compile(statements);
+            }
+            case "NODES" -> {
+                nodeInterpreter = new NodeInterpreter();
+                nodes = nodeInterpreter.build(statements);
+            }
+        }
+    }
+
+    @Benchmark
+    public void run() {
+        switch (engine) {
+            case "TREE" -> interpreter.interpret(statements);
+            case "VM" -> vm.interpret(script);
+            case "NODES" -> nodeInterpreter.interpret(nodes);
+        }
+    }
+}
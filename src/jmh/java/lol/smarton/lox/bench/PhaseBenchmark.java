@@ -0,0 +1,62 @@
+package lol.smarton.lox.bench;
+
+import lol.smarton.lox.Interpreter;
+import lol.smarton.lox.Parser;
+import lol.smarton.lox.Reporter;
+import lol.smarton.lox.Resolver;
+import lol.smarton.lox.Scanner;
+import lol.smarton.lox.TokenBuffer;
+import lol.smarton.lox.ast.Stmt;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scanning, parsing and interpreting separately on generated scripts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xss16m"})
+@State(Scope.Benchmark)
+public class PhaseBenchmark {
+    @Param({"FIB", "LOOPS", "STRINGS", "CLOSURES", "EXPRESSIONS"})
+    public Workload workload;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int lines;
+
+    private String source;
+    private TokenBuffer tokens;
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+    private final Reporter reporter = new Reporter();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = workload.generate(lines);
+        tokens = new Scanner(source, reporter).scanBuffer();
+        statements = new Parser(tokens.stream(), reporter).parse();
+
+        interpreter = new Interpreter();
+        new Resolver(interpreter).resolve(statements);
+    }
+
+    @Benchmark
+    public TokenBuffer scan() {
+        return new Scanner(source, reporter).scanBuffer();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens.stream(), reporter).parse();
+    }
+
+    @Benchmark
+    public Interpreter interpret() {
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+}
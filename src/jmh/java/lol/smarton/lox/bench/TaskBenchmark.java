@@ -0,0 +1,54 @@
+package lol.smarton.lox.bench;
+
+import lol.smarton.lox.LoxEngine;
+import lol.smarton.lox.Program;
+import lol.smarton.lox.Reporter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawns a number of tasks that all sleep at the same time, then collects
+ * them through a channel. What should stay flat is the memory per task:
+ * gc.alloc.rate.norm divided by the number of tasks, with no thread stacks
+ * reserved up front. The time per operation starts out close to the sleep,
+ * but spawning and collecting are still serial work in the main task, so it
+ * grows with the number of tasks once that outweighs the sleep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+@State(Scope.Benchmark)
+public class TaskBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int tasks;
+
+    private final LoxEngine engine = new LoxEngine();
+    private Program program;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var source = STR."""
+            var done = channel(\{tasks});
+            fun worker() {
+              sleep(10);
+              send(done, 1);
+            }
+            for (var i = 0; i < \{tasks}; i = i + 1) {
+              spawn(worker);
+            }
+            var total = 0;
+            for (var i = 0; i < \{tasks}; i = i + 1) {
+              total = total + receive(done);
+            }
+            """;
+        program = engine.compile(source, new Reporter());
+    }
+
+    @Benchmark
+    public int run() {
+        return engine.newContext(System.out, System.err).run(program);
+    }
+}
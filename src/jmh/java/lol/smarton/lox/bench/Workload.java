@@ -0,0 +1,92 @@
+package lol.smarton.lox.bench;
+
+/**
+ * Generators for benchmark scripts. Each workload has a fixed prelude and a
+ * unit of work that is repeated until the script reaches the requested
+ * number of lines. Units are wrapped in blocks so they don't pile up globals.
+ */
+public enum Workload {
+    FIB(
+        """
+        fun fib(n) {
+          if (n < 2) return n;
+          return fib(n - 1) + fib(n - 2);
+        }
+        """,
+        """
+        {
+          var r = fib(8);
+        }
+        """
+    ),
+    LOOPS(
+        "",
+        """
+        {
+          var sum = 0;
+          for (var i = 0; i < 4; i = i + 1) {
+            var j = 0;
+            while (j < 4) {
+              j = j + 1;
+              if (j == 2) continue;
+              sum = sum + i * j;
+            }
+          }
+        }
+        """
+    ),
+    STRINGS(
+        "",
+        """
+        {
+          var s = "lox";
+          s = s + " is" + " a" + " small";
+          s = s + " language";
+        }
+        """
+    ),
+    CLOSURES(
+        """
+        fun makeAdder(x) {
+          return fun (y) { return x + y; };
+        }
+        """,
+        """
+        {
+          var add = makeAdder(1);
+          var twice = fun (f, v) { return f(f(v)); };
+          twice(add, 2);
+        }
+        """
+    ),
+    EXPRESSIONS(
+        """
+        var a = 1;
+        var b = 2;
+        """,
+        """
+        {
+          var x = a + b * 2 - (a - 1) / 3;
+          var y = !(x < 10) == (b >= a) or x != -a and a <= 2;
+          x = y ? a * a + b * b : (a, b, -x);
+        }
+        """
+    );
+
+    private final String prelude;
+    private final String unit;
+
+    Workload(String prelude, String unit) {
+        this.prelude = prelude;
+        this.unit = unit;
+    }
+
+    public String generate(int lines) {
+        var unitLines = (int) unit.lines().count();
+        var builder = new StringBuilder(prelude);
+        for (int written = (int) prelude.lines().count(); written < lines; written += unitLines) {
+            builder.append(unit);
+        }
+        return builder.toString();
+    }
+}
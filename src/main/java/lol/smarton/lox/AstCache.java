@@ -0,0 +1,118 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Stmt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Parsed scripts kept on disk, so a script that hasn't changed since it was
+ * last run skips the scanner and parser. Entries are {@link AstCodec} files
+ * named after the SHA-256 of the source they came from: an edited script
+ * simply misses, and copies of the same script share one entry.
+ * <p>
+ * The cache holds syntax trees straight from the parser; optimizing and
+ * resolving still happen on every run. With logging on, every lookup is
+ * reported on stderr.
+ */
+final class AstCache {
+    private static final String EXTENSION = ".loxc";
+
+    private final Path directory;
+    private final boolean log;
+
+    AstCache(Path directory, boolean log) {
+        this.directory = directory;
+        this.log = log;
+    }
+
+    /**
+     * $XDG_CACHE_HOME/jlox, or ~/.cache/jlox when that isn't set.
+     */
+    static Path defaultDirectory() {
+        var cacheHome = System.getenv("XDG_CACHE_HOME");
+        if (cacheHome == null || cacheHome.isEmpty()) {
+            return Path.of(System.getProperty("user.home"), ".cache", "jlox");
+        }
+        return Path.of(cacheHome, "jlox");
+    }
+
+    /**
+     * The key a source is cached under. Leaves the buffer's position alone.
+     */
+    static String key(ByteBuffer source) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean contains(String key) {
+        return Files.isRegularFile(entry(key));
+    }
+
+    /**
+     * Returns the statements cached under {@code key}, with names interned
+     * into {@code symbols}, or null on a miss. Entries that can't be read
+     * count as misses and get overwritten by the next {@link #store}.
+     */
+    List<Stmt> load(String key, Path source, SymbolTable symbols) {
+        long start = System.nanoTime();
+        try {
+            var statements = AstCodec.decode(Files.readAllBytes(entry(key)), symbols);
+            log(STR."hit \{source} in \{(System.nanoTime() - start) / 1_000_000} ms");
+            return statements;
+        } catch (NoSuchFileException e) {
+            log(STR."miss \{source}");
+        } catch (IOException e) {
+            log(STR."miss \{source}: \{e}");
+        } catch (RuntimeException e) {
+            // Malformed, cut short or anything else bad data can make the
+            // decoder trip over: the entry is rewritten either way.
+            log(STR."miss \{source}: unreadable entry: \{e}");
+        }
+        return null;
+    }
+
+    /**
+     * Writes an entry. The file is written under a temporary name and moved
+     * into place, so concurrent runs never see half an entry.
+     */
+    void store(String key, Path source, List<Stmt> statements) {
+        try {
+            Files.createDirectories(directory);
+            var temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temporary, AstCodec.encode(statements));
+                Files.move(temporary, entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            log(STR."stored \{source}");
+        } catch (IOException e) {
+            log(STR."could not store \{source}: \{e}");
+        }
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key + EXTENSION);
+    }
+
+    private void log(String message) {
+        if (log) {
+            System.err.println(STR."[cache] \{message}");
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Expr;
+import lol.smarton.lox.ast.Stmt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of a parsed script, as kept in the {@link AstCache}. Nodes are
+ * written depth first as a tag byte followed by their fields; tokens keep
+ * their type, lexeme and line so errors still point at the right place.
+ * Each distinct string is written once and referred to by index after that,
+ * and counts and lines are varints, so most nodes take a few bytes.
+ */
+final class AstCodec {
+    static final class Malformed extends RuntimeException {
+        Malformed(String message) {
+            super(message);
+        }
+    }
+
+    // "LOXC", then the format version. Bump it whenever the layout changes.
+    private static final int MAGIC = 0x4C4F5843;
+    private static final int VERSION = 2;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // Tag of an absent node, in both statement and expression position.
+    private static final byte NONE = 0;
+
+    private static final byte BLOCK = 1;
+    private static final byte EXPRESSION = 2;
+    private static final byte FUNCTION = 3;
+    private static final byte IF = 4;
+    private static final byte PRINT = 5;
+    private static final byte RETURN = 6;
+    private static final byte VAR = 7;
+    private static final byte WHILE = 8;
+    private static final byte FOR = 9;
+    private static final byte LOOP_CONTROL = 10;
+
+    private static final byte ASSIGN = 1;
+    private static final byte BINARY = 2;
+    private static final byte CALL = 3;
+    private static final byte EXPRESSION_LIST = 4;
+    private static final byte GROUPING = 5;
+    private static final byte LITERAL = 6;
+    private static final byte LOGICAL = 7;
+    private static final byte TERNARY = 8;
+    private static final byte UNARY = 9;
+    private static final byte VARIABLE = 10;
+    private static final byte LAMBDA = 11;
+
+    private static final byte NIL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    // Numbers that are whole and fit an int, which most in scripts do.
+    private static final byte INTEGER = 5;
+
+    private static final long NEGATIVE_ZERO = Double.doubleToRawLongBits(-0.0);
+
+    private AstCodec() {}
+
+    static byte[] encode(List<Stmt> statements) {
+        var encoder = new Encoder();
+        encoder.fixed(MAGIC);
+        encoder.varint(VERSION);
+        encoder.statements(statements);
+        return encoder.bytes();
+    }
+
+    /**
+     * Reads back what {@link #encode} wrote, interning names into
+     * {@code symbols}. Throws {@link Malformed}, or
+     * {@link java.nio.BufferUnderflowException} if the data is cut short.
+     */
+    static List<Stmt> decode(byte[] data, SymbolTable symbols) {
+        var bytes = ByteBuffer.wrap(data);
+        var decoder = new Decoder(bytes, symbols);
+        if (bytes.getInt() != MAGIC) {
+            throw new Malformed("not a compiled script");
+        }
+        int version = decoder.varint();
+        if (version != VERSION) {
+            throw new Malformed(STR."format version \{version}, expected \{VERSION}");
+        }
+
+        var statements = decoder.statements();
+        if (bytes.hasRemaining()) {
+            throw new Malformed("trailing data");
+        }
+        return statements;
+    }
+
+    // Only these tokens carry a value, and the parser never keeps them in
+    // the tree, but the format doesn't rely on that.
+    private static boolean hasLiteral(TokenType type) {
+        return type == TokenType.NUMBER || type == TokenType.STRING;
+    }
+
+    private static final class Encoder {
+        private byte[] bytes = new byte[4096];
+        private int size = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private int line = 0;
+
+        byte[] bytes() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        void statements(List<Stmt> statements) {
+            varint(statements.size());
+            for (var statement : statements) {
+                statement(statement);
+            }
+        }
+
+        void statement(Stmt stmt) {
+            switch (stmt) {
+                case null -> tag(NONE);
+                case Stmt.Block block -> {
+                    tag(BLOCK);
+                    statements(block.statements());
+                }
+                case Stmt.Expression expression -> {
+                    tag(EXPRESSION);
+                    expression(expression.expression());
+                }
+                case Stmt.Function function -> {
+                    tag(FUNCTION);
+                    token(function.name());
+                    tokens(function.params());
+                    statements(function.body());
+                }
+                case Stmt.If ifStmt -> {
+                    tag(IF);
+                    expression(ifStmt.condition());
+                    statement(ifStmt.thenBranch());
+                    statement(ifStmt.elseBranch());
+                }
+                case Stmt.Print print -> {
+                    tag(PRINT);
+                    expression(print.expression());
+                }
+                case Stmt.Return returnStmt -> {
+                    tag(RETURN);
+                    token(returnStmt.keyword());
+                    expression(returnStmt.value());
+                }
+                case Stmt.Var var -> {
+                    tag(VAR);
+                    token(var.name());
+                    expression(var.initializer());
+                }
+                case Stmt.While whileStmt -> {
+                    tag(WHILE);
+                    token(whileStmt.keyword());
+                    expression(whileStmt.condition());
+                    statement(whileStmt.body());
+                }
+                case Stmt.For forStmt -> {
+                    tag(FOR);
+                    token(forStmt.keyword());
+                    statement(forStmt.initializer());
+                    expression(forStmt.condition());
+                    expression(forStmt.increment());
+                    statement(forStmt.body());
+                }
+                case Stmt.LoopControl loopControl -> {
+                    tag(LOOP_CONTROL);
+                    token(loopControl.token());
+                }
+            }
+        }
+
+        void expressions(List<Expr> expressions) {
+            varint(expressions.size());
+            for (var expression : expressions) {
+                expression(expression);
+            }
+        }
+
+        void expression(Expr expr) {
+            switch (expr) {
+                case null -> tag(NONE);
+                case Expr.Assign assign -> {
+                    tag(ASSIGN);
+                    token(assign.name());
+                    expression(assign.value());
+                }
+                case Expr.Binary binary -> {
+                    tag(BINARY);
+                    expression(binary.left());
+                    token(binary.operator());
+                    expression(binary.right());
+                }
+                case Expr.Call call -> {
+                    tag(CALL);
+                    expression(call.callee());
+                    token(call.paren());
+                    expressions(call.arguments());
+                }
+                case Expr.ExpressionList expressionList -> {
+                    tag(EXPRESSION_LIST);
+                    expressions(expressionList.expressions());
+                }
+                case Expr.Grouping grouping -> {
+                    tag(GROUPING);
+                    expression(grouping.expression());
+                }
+                case Expr.Literal literal -> {
+                    tag(LITERAL);
+                    value(literal.value());
+                }
+                case Expr.Logical logical -> {
+                    tag(LOGICAL);
+                    expression(logical.left());
+                    token(logical.operator());
+                    expression(logical.right());
+                }
+                case Expr.Ternary ternary -> {
+                    tag(TERNARY);
+                    expression(ternary.cond());
+                    expression(ternary.thenBranch());
+                    expression(ternary.elseBranch());
+                }
+                case Expr.Unary unary -> {
+                    tag(UNARY);
+                    token(unary.operator());
+                    expression(unary.right());
+                }
+                case Expr.Variable variable -> {
+                    tag(VARIABLE);
+                    token(variable.name());
+                }
+                case Expr.Function function -> {
+                    tag(LAMBDA);
+                    tokens(function.params());
+                    statements(function.body());
+                }
+            }
+        }
+
+        void tokens(List<Token> tokens) {
+            varint(tokens.size());
+            for (var token : tokens) {
+                token(token);
+            }
+        }
+
+        void token(Token token) {
+            tag((byte) token.type().ordinal());
+            string(token.lexeme());
+            // Tokens come in source order, so lines are written as the
+            // (usually tiny) difference from the previous one.
+            signed(token.line() - line);
+            line = token.line();
+            if (hasLiteral(token.type())) {
+                value(token.literal());
+            }
+        }
+
+        void value(Object value) {
+            switch (value) {
+                case null -> tag(NIL);
+                case Boolean b -> tag(b ? TRUE : FALSE);
+                case Double d when d == (int) (double) d && Double.doubleToRawLongBits(d) != NEGATIVE_ZERO -> {
+                    tag(INTEGER);
+                    signed((int) (double) d);
+                }
+                case Double d -> {
+                    tag(NUMBER);
+                    long bits = Double.doubleToRawLongBits(d);
+                    fixed((int) (bits >>> 32));
+                    fixed((int) bits);
+                }
+                case String s -> {
+                    tag(STRING);
+                    string(s);
+                }
+                default -> throw new IllegalArgumentException(STR."Can't encode literal \{value}.");
+            }
+        }
+
+        // A string is its index in the order strings were first written;
+        // the first time, the index is followed by the UTF-8 bytes.
+        void string(String string) {
+            var index = strings.get(string);
+            if (index != null) {
+                varint(index);
+                return;
+            }
+
+            varint(strings.size());
+            strings.put(string, strings.size());
+            var utf8 = string.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            reserve(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        void tag(byte tag) {
+            reserve(1);
+            bytes[size++] = tag;
+        }
+
+        void fixed(int value) {
+            reserve(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        // Zigzag encoded, so small negative numbers stay small too.
+        void signed(int value) {
+            varint((value << 1) ^ (value >> 31));
+        }
+
+        void varint(int value) {
+            reserve(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void reserve(int count) {
+            if (size + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final ByteBuffer bytes;
+        private final SymbolTable table;
+        private final List<String> strings = new ArrayList<>();
+        private Symbol[] symbols = new Symbol[64];
+        private int line = 0;
+
+        Decoder(ByteBuffer bytes, SymbolTable table) {
+            this.bytes = bytes;
+            this.table = table;
+        }
+
+        List<Stmt> statements() {
+            int count = count();
+            var statements = new ArrayList<Stmt>(Math.min(count, bytes.remaining()));
+            for (int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        Stmt statement() {
+            byte tag = bytes.get();
+            return switch (tag) {
+                case NONE -> null;
+                case BLOCK -> new Stmt.Block(statements());
+                case EXPRESSION -> new Stmt.Expression(expression());
+                case FUNCTION -> new Stmt.Function(token(), tokens(), statements());
+                case IF -> new Stmt.If(expression(), statement(), statement());
+                case PRINT -> new Stmt.Print(expression());
+                case RETURN -> new Stmt.Return(token(), expression());
+                case VAR -> new Stmt.Var(token(), expression());
+                case WHILE -> new Stmt.While(token(), expression(), statement());
+                case FOR -> new Stmt.For(token(), statement(), expression(), expression(), statement());
+                case LOOP_CONTROL -> new Stmt.LoopControl(token());
+                default -> throw new Malformed(STR."unknown statement tag \{tag}");
+            };
+        }
+
+        List<Expr> expressions() {
+            int count = count();
+            var expressions = new ArrayList<Expr>(Math.min(count, bytes.remaining()));
+            for (int i = 0; i < count; i++) {
+                expressions.add(expression());
+            }
+            return expressions;
+        }
+
+        Expr expression() {
+            byte tag = bytes.get();
+            return switch (tag) {
+                case NONE -> null;
+                case ASSIGN -> new Expr.Assign(token(), expression());
+                case BINARY -> new Expr.Binary(expression(), token(), expression());
+                case CALL -> new Expr.Call(expression(), token(), expressions());
+                case EXPRESSION_LIST -> new Expr.ExpressionList(expressions());
+                case GROUPING -> new Expr.Grouping(expression());
+                case LITERAL -> new Expr.Literal(value());
+                case LOGICAL -> new Expr.Logical(expression(), token(), expression());
+                case TERNARY -> new Expr.Ternary(expression(), expression(), expression());
+                case UNARY -> new Expr.Unary(token(), expression());
+                case VARIABLE -> new Expr.Variable(token());
+                case LAMBDA -> new Expr.Function(tokens(), statements());
+                default -> throw new Malformed(STR."unknown expression tag \{tag}");
+            };
+        }
+
+        List<Token> tokens() {
+            int count = count();
+            var tokens = new ArrayList<Token>(Math.min(count, bytes.remaining()));
+            for (int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        Token token() {
+            int type = bytes.get();
+            if (type < 0 || type >= TYPES.length) {
+                throw new Malformed(STR."unknown token type \{type}");
+            }
+            int lexeme = stringIndex();
+            line += signed();
+            var literal = hasLiteral(TYPES[type]) ? value() : null;
+            var symbol = TYPES[type] == TokenType.IDENTIFIER ? symbol(lexeme) : null;
+            return new Token(TYPES[type], strings.get(lexeme), literal, line, symbol);
+        }
+
+        // Names repeat a lot, so each one is only interned once.
+        private Symbol symbol(int string) {
+            if (string >= symbols.length) {
+                symbols = Arrays.copyOf(symbols, Math.max(symbols.length * 2, string + 1));
+            }
+            if (symbols[string] == null) {
+                symbols[string] = table.of(strings.get(string));
+            }
+            return symbols[string];
+        }
+
+        Object value() {
+            byte tag = bytes.get();
+            return switch (tag) {
+                case NIL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case INTEGER -> (double) signed();
+                case NUMBER -> Double.longBitsToDouble(bytes.getLong());
+                case STRING -> string();
+                default -> throw new Malformed(STR."unknown literal tag \{tag}");
+            };
+        }
+
+        String string() {
+            return strings.get(stringIndex());
+        }
+
+        int stringIndex() {
+            int index = count();
+            if (index < strings.size()) {
+                return index;
+            }
+            if (index > strings.size()) {
+                throw new Malformed(STR."string \{index} used before it is defined");
+            }
+
+            int length = count();
+            if (length > bytes.remaining()) {
+                throw new Malformed("string runs past the end");
+            }
+            var string = new String(bytes.array(), bytes.position(), length, StandardCharsets.UTF_8);
+            bytes.position(bytes.position() + length);
+            strings.add(string);
+            return index;
+        }
+
+        // A varint that counts or indexes something. Written from an int
+        // that is never negative, so a negative one means the data is bad.
+        int count() {
+            int value = varint();
+            if (value < 0) {
+                throw new Malformed(STR."negative count \{value}");
+            }
+            return value;
+        }
+
+        int signed() {
+            int value = varint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = bytes.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new Malformed("varint too long");
+        }
+    }
+}
@@ -2,8 +2,8 @@ package lol.smarton.lox;
 
 import lol.smarton.lox.ast.*;
 
-public interface AstWalker<T> {
-    default T walk(Expr expr) {
+public interface AstWalker<E, S> {
+    default E walk(Expr expr) {
         return switch (expr) {
             case Expr.Assign assign -> walk(assign); 
             case Expr.Binary binary -> walk(binary);
@@ -19,8 +19,8 @@ public interface AstWalker<T> {
         };
     }
     
-    default void walk(Stmt stmt) {
-        switch (stmt) {
+    default S walk(Stmt stmt) {
+        return switch (stmt) {
             case Stmt.Block block -> walk(block);
             case Stmt.Expression expression -> walk(expression);
             case Stmt.Function function -> walk(function);
@@ -34,26 +34,26 @@ public interface AstWalker<T> {
         };
     }
 
-    T walk(Expr.Assign assign);
-    T walk(Expr.Binary binary);
-    T walk(Expr.Call call);
-    T walk(Expr.Unary unary);
-    T walk(Expr.Literal literal);
-    T walk(Expr.Logical logical);
-    T walk(Expr.Grouping grouping);
-    T walk(Expr.ExpressionList expressionList);
-    T walk(Expr.Ternary ternary);
-    T walk(Expr.Variable variable);
-    T walk(Expr.Function function);
+    E walk(Expr.Assign assign);
+    E walk(Expr.Binary binary);
+    E walk(Expr.Call call);
+    E walk(Expr.Unary unary);
+    E walk(Expr.Literal literal);
+    E walk(Expr.Logical logical);
+    E walk(Expr.Grouping grouping);
+    E walk(Expr.ExpressionList expressionList);
+    E walk(Expr.Ternary ternary);
+    E walk(Expr.Variable variable);
+    E walk(Expr.Function function);
 
-    void walk(Stmt.Block stmt);
-    void walk(Stmt.Expression stmt);
-    void walk(Stmt.Function stmt);
-    void walk(Stmt.If stmt);
-    void walk(Stmt.Print stmt);
-    void walk(Stmt.Return stmt);
-    void walk(Stmt.Var stmt);
-    void walk(Stmt.While stmt);
-    void walk(Stmt.For stmt);
-    void walk(Stmt.LoopControl stmt);
+    S walk(Stmt.Block stmt);
+    S walk(Stmt.Expression stmt);
+    S walk(Stmt.Function stmt);
+    S walk(Stmt.If stmt);
+    S walk(Stmt.Print stmt);
+    S walk(Stmt.Return stmt);
+    S walk(Stmt.Var stmt);
+    S walk(Stmt.While stmt);
+    S walk(Stmt.For stmt);
+    S walk(Stmt.LoopControl stmt);
 }
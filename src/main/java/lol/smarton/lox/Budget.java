@@ -0,0 +1,109 @@
+package lol.smarton.lox;
+
+/**
+ * Limits on how much a script may do before it is stopped with a runtime
+ * error, so one runaway script can't hold on to a thread forever. A step is
+ * one loop iteration or one function call. Zero means no limit.
+ * <p>
+ * With {@code yieldEvery} set, a script gives up its thread after that many
+ * steps. That is what lets other tasks on the same carrier thread run while
+ * a script loops without blocking.
+ *
+ * @param steps      steps allowed per run, counted separately for each task
+ * @param millis     wall time allowed per run, shared with its tasks
+ * @param depth      Lox calls allowed on the stack at once
+ * @param yieldEvery steps between yields
+ */
+public record Budget(long steps, long millis, int depth, long yieldEvery) {
+    public static final Budget UNLIMITED = new Budget(0, 0, 0, 0);
+
+    public Budget {
+        if (steps < 0 || millis < 0 || depth < 0 || yieldEvery < 0) {
+            throw new IllegalArgumentException("Budget limits can't be negative.");
+        }
+    }
+
+    boolean isUnlimited() {
+        return steps == 0 && millis == 0 && depth == 0 && yieldEvery == 0;
+    }
+
+    /**
+     * What a run has used of a budget. The interpreter only holds one when
+     * a budget is set, and all the work happens in {@link #check} every so
+     * many steps, so counting costs an increment and a compare.
+     */
+    static final class Meter {
+        // Steps between looks at the clock.
+        private static final long CLOCK_INTERVAL = 1024;
+
+        private final Budget budget;
+        private final long deadline;
+        private long steps = 0;
+        private long nextCheck;
+        private int depth = 0;
+
+        Meter(Budget budget) {
+            this(budget, budget.millis > 0 ? System.nanoTime() + budget.millis * 1_000_000 : 0);
+        }
+
+        private Meter(Budget budget, long deadline) {
+            this.budget = budget;
+            this.deadline = deadline;
+            this.nextCheck = next();
+        }
+
+        /**
+         * A meter for a task: it counts steps and calls of its own but has
+         * to finish by the same time.
+         */
+        Meter fork() {
+            return new Meter(budget, deadline);
+        }
+
+        void tick(Token token) {
+            if (++steps >= nextCheck) {
+                check(token);
+            }
+        }
+
+        void enter(Token token) {
+            if (budget.depth > 0 && depth == budget.depth) {
+                throw new RuntimeError(token, STR."Call depth budget of \{budget.depth} exceeded.");
+            }
+            depth++;
+            tick(token);
+        }
+
+        void exit() {
+            depth--;
+        }
+
+        private void check(Token token) {
+            if (budget.steps > 0 && steps >= budget.steps) {
+                throw new RuntimeError(token, STR."Step budget of \{budget.steps} exceeded.");
+            }
+            if (deadline != 0 && System.nanoTime() - deadline > 0) {
+                throw new RuntimeError(token, STR."Time budget of \{budget.millis} ms exceeded.");
+            }
+            if (budget.yieldEvery > 0 && steps % budget.yieldEvery == 0) {
+                Thread.yield();
+            }
+            nextCheck = next();
+        }
+
+        // The closest step at which one of the limits needs looking at.
+        private long next() {
+            long next = Long.MAX_VALUE;
+            if (budget.steps > 0) {
+                next = budget.steps;
+            }
+            if (deadline != 0) {
+                next = Math.min(next, (steps / CLOCK_INTERVAL + 1) * CLOCK_INTERVAL);
+            }
+            if (budget.yieldEvery > 0) {
+                next = Math.min(next, (steps / budget.yieldEvery + 1) * budget.yieldEvery);
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package lol.smarton.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Output that collects what is printed in a buffer and writes it to a
+ * channel when the buffer is full or {@link #flush()} is called. Unlike
+ * {@link System#out} it doesn't lock or flush on every line.
+ * <p>
+ * Whole numbers, which is most of what scripts print, are written digit by
+ * digit straight into the buffer. Other values go through
+ * {@link Interpreter#stringify}. Text is written as UTF-8. Printing and
+ * flushing are locked, so tasks can share one output.
+ */
+final class BufferedOutput implements Output {
+    // Whole numbers below this print without an exponent; see Double.toString.
+    private static final double PLAIN_LIMIT = 1e7;
+    private static final byte[] NIL = {'n', 'i', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    // Bytes handed to the channel so far.
+    private long written = 0;
+
+    BufferedOutput(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(capacity);
+    }
+
+    static BufferedOutput toStandardOut(int capacity) {
+        return new BufferedOutput(Channels.newChannel(new FileOutputStream(FileDescriptor.out)), capacity);
+    }
+
+    static BufferedOutput toFile(Path path, int capacity) throws IOException {
+        var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new BufferedOutput(channel, capacity);
+    }
+
+    @Override
+    public synchronized void print(Object value) {
+        long start = written + buffer.position();
+        switch (value) {
+            case null -> put(NIL);
+            case Boolean bool -> put(bool ? TRUE : FALSE);
+            case Double number -> putNumber(number);
+            case String string -> putString(string);
+            default -> putString(Interpreter.stringify(value));
+        }
+        room(1);
+        buffer.put((byte) '\n');
+        Metrics.printed(written + buffer.position() - start);
+    }
+
+    @Override
+    public synchronized void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void putNumber(double number) {
+        if (number != (long) number || Math.abs(number) >= PLAIN_LIMIT) {
+            putString(Interpreter.stringify(number));
+            return;
+        }
+
+        long value = (long) number;
+        boolean negative = value < 0 || (value == 0 && 1 / number < 0);
+        if (negative) {
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+
+        room(digits + 1);
+        if (negative) {
+            buffer.put((byte) '-');
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private void putString(String string) {
+        int length = string.length();
+        room(length);
+        if (buffer.remaining() >= length) {
+            int i = 0;
+            while (i < length && string.charAt(i) < 0x80) {
+                buffer.put((byte) string.charAt(i++));
+            }
+            if (i == length) {
+                return;
+            }
+            string = string.substring(i);
+        }
+        put(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void put(byte[] bytes) {
+        room(bytes.length);
+        if (buffer.remaining() >= bytes.length) {
+            buffer.put(bytes);
+            return;
+        }
+
+        // Larger than the whole buffer: write it out directly.
+        try {
+            var wrapped = ByteBuffer.wrap(bytes);
+            while (wrapped.hasRemaining()) {
+                written += channel.write(wrapped);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes if fewer than {@code size} bytes are left in the buffer.
+     */
+    private void room(int size) {
+        if (buffer.remaining() < size) {
+            flush();
+        }
+    }
+}
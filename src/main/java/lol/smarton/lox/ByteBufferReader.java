@@ -0,0 +1,47 @@
+package lol.smarton.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 source straight out of a byte buffer, typically a memory
+ * mapped file, without copying the whole file onto the heap.
+ */
+final class ByteBufferReader extends Reader {
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private boolean flushed = false;
+
+    ByteBufferReader(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (flushed) {
+            return -1;
+        }
+
+        var out = CharBuffer.wrap(chars, offset, length);
+        var result = decoder.decode(bytes, out, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        if (!bytes.hasRemaining() && !result.isOverflow()) {
+            decoder.flush(out);
+            flushed = true;
+        }
+
+        int read = out.position() - offset;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the mapping goes away with the buffer.
+    }
+}
@@ -0,0 +1,23 @@
+package lol.smarton.lox;
+
+public class Clock implements LoxCallable {
+    @Override
+    public int arity() {
+        return 0;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object... arguments) {
+        return call0(interpreter);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return (double)System.currentTimeMillis() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
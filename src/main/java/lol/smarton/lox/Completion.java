@@ -0,0 +1,50 @@
+package lol.smarton.lox;
+
+/**
+ * How a statement finished. Loops and function calls inspect it instead of
+ * catching exceptions, so break, continue and return cost no more than a
+ * normal statement.
+ */
+final class Completion {
+    enum Kind {
+        NORMAL,
+        BREAK,
+        CONTINUE,
+        RETURN
+    }
+
+    static final Completion NORMAL = new Completion(Kind.NORMAL, null);
+    static final Completion BREAK = new Completion(Kind.BREAK, null);
+    static final Completion CONTINUE = new Completion(Kind.CONTINUE, null);
+    private static final Completion RETURN_NIL = new Completion(Kind.RETURN, null);
+
+    final Kind kind;
+    final Object value;
+    // Set for a return whose value is still to be computed by calling
+    // callee; see LoxFunction for who makes the call.
+    final LoxFunction callee;
+    final Object[] arguments;
+
+    private Completion(Kind kind, Object value) {
+        this(kind, value, null, null);
+    }
+
+    private Completion(Kind kind, Object value, LoxFunction callee, Object[] arguments) {
+        this.kind = kind;
+        this.value = value;
+        this.callee = callee;
+        this.arguments = arguments;
+    }
+
+    static Completion returning(Object value) {
+        return value == null ? RETURN_NIL : new Completion(Kind.RETURN, value);
+    }
+
+    static Completion tailCall(LoxFunction callee, Object[] arguments) {
+        return new Completion(Kind.RETURN, null, callee, arguments);
+    }
+
+    boolean isTailCall() {
+        return callee != null;
+    }
+}
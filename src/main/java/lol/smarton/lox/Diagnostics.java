@@ -0,0 +1,13 @@
+package lol.smarton.lox;
+
+/**
+ * Where the scanner, parser, resolver and engines report errors. Each
+ * script run gets its own, so runs don't see each other's errors.
+ */
+public interface Diagnostics {
+    void error(int line, String message);
+
+    void error(Token token, String message);
+
+    void runtimeError(RuntimeError error);
+}
@@ -1,47 +1,192 @@
 package lol.smarton.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
+    // Value of a global slot whose name has been seen but not defined yet.
+    private static final Object UNDEFINED = new Object();
+    // Globals are stored in chunks of this many slots.
+    private static final int CHUNK_BITS = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     private final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-    
+    // Only the global environment is keyed by name, and only to hand out
+    // slots while code is resolved. Names rather than symbols, so a program
+    // can run in globals other than the ones it was scanned for. Every other
+    // scope is resolved statically and stores its variables in declaration
+    // order.
+    private final Map<String, Integer> indices;
+    // The globals. Tasks use them while the parent resolves code that
+    // declares more, so a chunk never moves once it's allocated and only
+    // this table is copied to grow. A task looking at an older table still
+    // finds every slot it can know about where everyone else does.
+    private volatile Chunk[] chunks;
+    // Global slots handed out, under this environment's lock.
+    private int globalCount = 0;
+    private Object[] slots;
+    private int size = 0;
+    // Whether a function has been created in this scope or one inside it,
+    // so it may outlive the call that created it.
+    private boolean captured = false;
+
+    private static final class Chunk {
+        final Object[] values = new Object[CHUNK_SIZE];
+        // Bumped every time a slot is written, so callers can cache what they
+        // read from it.
+        final int[] versions = new int[CHUNK_SIZE];
+
+        Chunk() {
+            Arrays.fill(values, UNDEFINED);
+        }
+    }
+
     public Environment() {
         enclosing = null;
+        indices = new ConcurrentHashMap<>();
+        chunks = new Chunk[] {new Chunk()};
     }
-    
+
     public Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.indices = null;
+        this.slots = new Object[4];
+        Metrics.environmentCreated();
     }
-    
+
     Object get(Token name) {
-        if (values.containsKey(name.lexeme())) {
-            return values.get(name.lexeme());
+        return getGlobal(globalSlot(name.lexeme()), name);
+    }
+
+    void assign(Token name, Object value) {
+        assignGlobal(globalSlot(name.lexeme()), name, value);
+    }
+
+    void define(String name, Object value) {
+        int slot = globalSlot(name);
+        var chunk = chunk(slot);
+        chunk.values[slot & CHUNK_MASK] = value;
+        chunk.versions[slot & CHUNK_MASK]++;
+    }
+
+    /**
+     * Index of a global in this table. Names get a slot the first time they
+     * are asked for, defined or not, and keep it forever. Looking a name up
+     * takes no lock; handing out a new slot does.
+     */
+    int globalSlot(String name) {
+        var index = indices.get(name);
+        return index != null ? index : newGlobalSlot(name);
+    }
+
+    private synchronized int newGlobalSlot(String name) {
+        var index = indices.get(name);
+        if (index != null) {
+            return index;
         }
-        
-        if (enclosing != null) {
-            return enclosing.get(name);
+
+        int slot = globalCount++;
+        var chunks = this.chunks;
+        if (slot >> CHUNK_BITS == chunks.length) {
+            var grown = Arrays.copyOf(chunks, chunks.length * 2);
+            for (int i = chunks.length; i < grown.length; i++) {
+                grown[i] = new Chunk();
+            }
+            // Published before the index, so whoever finds the name finds
+            // its chunk as well.
+            this.chunks = grown;
         }
-        
-        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 1.");
+        indices.put(name, slot);
+        return slot;
     }
-    
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme())) {
-            values.put(name.lexeme(), value);
-            return;
+
+    private Chunk chunk(int slot) {
+        return chunks[slot >> CHUNK_BITS];
+    }
+
+    Object getGlobal(int slot, Token name) {
+        var value = chunk(slot).values[slot & CHUNK_MASK];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 1.");
         }
+        return value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    void assignGlobal(int slot, Token name, Object value) {
+        var chunk = chunk(slot);
+        if (chunk.values[slot & CHUNK_MASK] == UNDEFINED) {
+            throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 2.");
         }
-        
-        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 2.");
+        chunk.values[slot & CHUNK_MASK] = value;
+        chunk.versions[slot & CHUNK_MASK]++;
     }
-    
-    void define(String name, Object value) {
-        values.put(name, value);
+
+    /**
+     * The value in a global slot, without the check for undefined globals.
+     * Only for looking at what a global holds; it's not a Lox value.
+     */
+    Object globalValue(int slot) {
+        return chunk(slot).values[slot & CHUNK_MASK];
+    }
+
+    int version(int slot) {
+        return chunk(slot).versions[slot & CHUNK_MASK];
+    }
+
+    void define(Object value) {
+        if (size == slots.length) {
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        slots[size++] = value;
+    }
+
+    /**
+     * Marks this scope and the ones around it as referenced by a closure.
+     */
+    void capture() {
+        for (var environment = this; environment != null && !environment.captured; environment = environment.enclosing) {
+            environment.captured = true;
+        }
+    }
+
+    /**
+     * Empties a scope so a call can reuse it instead of allocating a new
+     * one. Only possible when no closure can see it and it has the same
+     * enclosing scope the new one would.
+     */
+    boolean reset(Environment enclosing) {
+        if (captured || this.enclosing != enclosing) {
+            return false;
+        }
+        Arrays.fill(slots, 0, size, null);
+        size = 0;
+        return true;
+    }
+
+    /**
+     * Whether the scope {@code depth} up has got as far as defining
+     * {@code slot}. Slots are defined in order, so that is its size.
+     */
+    boolean isDefinedAt(int depth, int slot) {
+        return slot < ancestor(depth).size;
+    }
+
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    private Environment ancestor(int depth) {
+        Metrics.lookedUp(depth);
+        var environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 }
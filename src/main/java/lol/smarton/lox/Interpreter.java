@@ -2,47 +2,311 @@ package lol.smarton.lox;
 
 import lol.smarton.lox.ast.*;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+
+public class Interpreter implements AstWalker<Object, Completion> {
+    private static final Object[] NO_VALUES = {};
+
+    final Environment globals;
+    final Diagnostics diagnostics;
+    private Environment environment;
+    private final SlotTable locals;
+    private final Map<Expr.Call, CallSite> callSites = new IdentityHashMap<>();
+    Jit jit = null;
+    Memoizer memoizer = null;
+    Profiler profiler = null;
+    Output output = Output.of(System.out);
+    // Lox calls in progress; only kept while Flight Recorder records them.
+    int callDepth = 0;
+    // What this run has used of its budget, if it has one.
+    Budget.Meter meter = null;
+    // Tasks spawned by this interpreter and its forks that are still running.
+    final Tasks.Group tasks;
+
+    static {
+        LoxEvents.install();
+        Metrics.register();
+    }
+
+    /**
+     * Where a variable lives: a slot in the environment {@code depth} scopes
+     * up, or a slot in the global table.
+     * <p>
+     * A function can refer to a name that an enclosing scope declares, or
+     * declares again, after the function. Which variable it sees then
+     * depends on how far that scope has got when the function runs, so
+     * {@code next} says where to look while this slot isn't defined yet.
+     */
+    record Slot(int depth, int index, Slot next) {
+        static final int GLOBAL = -1;
+
+        Slot(int depth, int index) {
+            this(depth, index, null);
+        }
 
-public class Interpreter implements AstWalker<Object> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+        boolean isGlobal() {
+            return depth == GLOBAL;
+        }
+    }
 
-    private static class ContinueLoop extends RuntimeException {}
-    private static class BreakLoop extends RuntimeException {}
+    /**
+     * Inline cache for one call expression. It remembers the last callee that
+     * passed the callable and arity checks. When the callee is a global, the
+     * binding's version is kept as well, so the callee isn't even read again
+     * until the global is reassigned.
+     */
+    private static final class CallSite {
+        static final int NOT_GLOBAL = -1;
+
+        final int global;
+        LoxCallable target = null;
+        int version;
+
+        CallSite(int global) {
+            this.global = global;
+        }
+    }
+
+    /**
+     * Compiles functions to JVM classes once they get hot. Decisions are
+     * printed to stderr when {@code log} is set.
+     */
+    public void enableJit(boolean log) {
+        jit = new Jit(log);
+    }
     
-    public void interpret(List<Stmt> statements) {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+    /**
+     * Caches results of pure functions, keeping up to {@code capacity} per
+     * function. Decisions and hit counts go to stderr when {@code log} is
+     * set; see {@link #reportMemoization()}.
+     */
+    public void enableMemoization(int capacity, boolean log) {
+        memoizer = new Memoizer(capacity, log);
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    public void reportMemoization() {
+        if (memoizer != null) {
+            memoizer.report();
+        }
+    }
+    
+    /**
+     * Samples the Lox call stack every {@code interval} microseconds until
+     * {@link #stopProfiling} is called.
+     */
+    public void startProfiling(long interval) {
+        profiler = new Profiler(interval);
+        profiler.start();
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    /**
+     * Stops sampling, writes the stacks seen to {@code output} for flame
+     * graph tools and prints the {@code top} hottest functions to stderr.
+     */
+    public void stopProfiling(Path output, int top) throws IOException {
+        profiler.stop();
+        profiler.writeCollapsed(output);
+        profiler.report(System.err, top);
+        profiler = null;
+    }
+
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    /**
+     * Limits what runs from now on may do; see {@link Budget}. The limits
+     * count from this call, so set the budget again before each run.
+     */
+    public void setBudget(Budget budget) {
+        meter = budget.isUnlimited() ? null : new Budget.Meter(budget);
+    }
+
+    public Interpreter() {
+        this(new Reporter());
+    }
+
+    public Interpreter(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        this.globals = new Environment();
+        this.environment = globals;
+        this.locals = new SlotTable();
+        this.tasks = new Tasks.Group();
+        globals.define("clock", new Clock());
+        Tasks.define(globals);
+    }
+
+    /**
+     * An interpreter for a task spawned from this one. It shares the globals
+     * and what the resolver found, both of which stay safe to read while the
+     * parent goes on resolving, but has its own scopes and call-site caches.
+     * Compiling, memoizing and profiling stay with the parent: their tables
+     * aren't thread safe.
+     */
+    private Interpreter(Interpreter parent) {
+        this.diagnostics = parent.diagnostics;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.locals = parent.locals;
+        this.tasks = parent.tasks;
+        this.output = parent.output;
+        this.meter = parent.meter != null ? parent.meter.fork() : null;
+    }
+
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    /**
+     * Waits until every task spawned by this interpreter, or by those tasks,
+     * has finished.
+     */
+    void awaitTasks() {
+        try {
+            tasks.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void interpret(List<Stmt> statements) {
+        if (memoizer != null) {
+            memoizer.analyze(statements, this);
+        }
 
         try {
             for (Stmt statement : statements) {
                 walk(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            diagnostics.runtimeError(error);
+        }
+    }
+
+    void resolve(Expr expr, Slot slot) {
+        locals.put(expr, slot);
+    }
+
+    Slot globalSlot(Token name) {
+        return new Slot(Slot.GLOBAL, globals.globalSlot(name.lexeme()));
+    }
+
+    Slot slotOf(Expr expr) {
+        return locals.get(expr);
+    }
+
+    /**
+     * Makes what the resolver has found since the last call visible to the
+     * tasks that are running.
+     */
+    void publishResolution() {
+        locals.publish();
+    }
+
+    /**
+     * Forgets what was resolved for top-level code that has finished running,
+     * so a script run statement by statement doesn't keep every statement
+     * alive. Function bodies are kept, since the functions can still be
+     * called.
+     */
+    public void release(List<Stmt> statements) {
+        for (var statement : statements) {
+            release(statement);
+        }
+        locals.publish();
+    }
+
+    private void release(Stmt stmt) {
+        switch (stmt) {
+            case Stmt.Block block -> release(block.statements());
+            case Stmt.Expression expression -> release(expression.expression());
+            case Stmt.Function _, Stmt.LoopControl _ -> {}
+            case Stmt.If ifStmt -> {
+                release(ifStmt.condition());
+                release(ifStmt.thenBranch());
+                if (ifStmt.elseBranch() != null) {
+                    release(ifStmt.elseBranch());
+                }
+            }
+            case Stmt.Print print -> release(print.expression());
+            case Stmt.Return returnStmt -> {
+                if (returnStmt.value() != null) {
+                    release(returnStmt.value());
+                }
+            }
+            case Stmt.Var var -> {
+                if (var.initializer() != null) {
+                    release(var.initializer());
+                }
+            }
+            case Stmt.While whileStmt -> {
+                release(whileStmt.condition());
+                release(whileStmt.body());
+            }
+            case Stmt.For forStmt -> {
+                if (forStmt.initializer() != null) {
+                    release(forStmt.initializer());
+                }
+                if (forStmt.condition() != null) {
+                    release(forStmt.condition());
+                }
+                if (forStmt.increment() != null) {
+                    release(forStmt.increment());
+                }
+                release(forStmt.body());
+            }
+        }
+    }
+
+    private void release(Expr expr) {
+        locals.remove(expr);
+        switch (expr) {
+            case Expr.Assign assign -> release(assign.value());
+            case Expr.Binary binary -> {
+                release(binary.left());
+                release(binary.right());
+            }
+            case Expr.Call call -> {
+                callSites.remove(call);
+                release(call.callee());
+                call.arguments().forEach(this::release);
+            }
+            case Expr.Unary unary -> release(unary.right());
+            case Expr.Literal _, Expr.Variable _, Expr.Function _ -> {}
+            case Expr.Logical logical -> {
+                release(logical.left());
+                release(logical.right());
+            }
+            case Expr.Grouping grouping -> release(grouping.expression());
+            case Expr.ExpressionList expressionList -> expressionList.expressions().forEach(this::release);
+            case Expr.Ternary ternary -> {
+                release(ternary.cond());
+                release(ternary.thenBranch());
+                release(ternary.elseBranch());
+            }
         }
     }
 
     @Override
     public Object walk(Expr.Assign assign) {
         Object value = walk(assign.value());
-        environment.assign(assign.name(), value);
+
+        var slot = locals.get(assign);
+        if (slot != null && slot.next() != null) {
+            slot = defined(slot);
+        }
+        if (slot == null) {
+            globals.assign(assign.name(), value);
+        } else if (slot.isGlobal()) {
+            globals.assignGlobal(slot.index(), assign.name(), value);
+        } else {
+            environment.assignAt(slot.depth(), slot.index(), value);
+        }
+
         return value;
     }
 
@@ -102,22 +366,103 @@ public class Interpreter implements AstWalker<Object> {
 
     @Override
     public Object walk(Expr.Call expr) {
-        Object callee = walk(expr.callee());
+        var site = callSite(expr);
+        int version = version(site);
+        var callee = callee(site, expr, version);
+
+        try {
+            return call(site, expr, callee, version, expr.arguments());
+        } catch (NativeError error) {
+            throw error.at(expr.paren());
+        }
+    }
+
+    private CallSite callSite(Expr.Call expr) {
+        var site = callSites.get(expr);
+        if (site == null) {
+            site = new CallSite(globalSlotOf(expr.callee()));
+            callSites.put(expr, site);
+        }
+        return site;
+    }
+
+    private int version(CallSite site) {
+        return site.global == CallSite.NOT_GLOBAL ? 0 : globals.version(site.global);
+    }
+
+    private Object callee(CallSite site, Expr.Call expr, int version) {
+        if (site.global == CallSite.NOT_GLOBAL) {
+            return walk(expr.callee());
+        }
+        // Reading a global has no side effects, so it can be skipped while
+        // the binding hasn't changed.
+        return site.target != null && version == site.version ? site.target : walk(expr.callee());
+    }
+
+    private Object call(CallSite site, Expr.Call expr, Object callee, int version, List<Expr> arguments) {
+        return switch (arguments.size()) {
+            case 0 -> target(site, expr, callee, version, 0).call0(this);
+            case 1 -> {
+                var a0 = walk(arguments.get(0));
+                yield target(site, expr, callee, version, 1).call1(this, a0);
+            }
+            case 2 -> {
+                var a0 = walk(arguments.get(0));
+                var a1 = walk(arguments.get(1));
+                yield target(site, expr, callee, version, 2).call2(this, a0, a1);
+            }
+            case 3 -> {
+                var a0 = walk(arguments.get(0));
+                var a1 = walk(arguments.get(1));
+                var a2 = walk(arguments.get(2));
+                yield target(site, expr, callee, version, 3).call3(this, a0, a1, a2);
+            }
+            default -> {
+                var values = values(arguments);
+                yield target(site, expr, callee, version, values.length).call(this, values);
+            }
+        };
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (var argument : expr.arguments()) {
-            arguments.add(walk(argument));
+    private Object[] values(List<Expr> arguments) {
+        if (arguments.isEmpty()) {
+            return NO_VALUES;
         }
+        var values = new Object[arguments.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = walk(arguments.get(i));
+        }
+        return values;
+    }
+
+    private LoxCallable target(CallSite site, Expr.Call expr, Object callee, int version, int argumentCount) {
+        if (callee != site.target) {
+            site.target = callable(expr, callee, argumentCount);
+        }
+        site.version = version;
+        return site.target;
+    }
 
+    private static LoxCallable callable(Expr.Call expr, Object callee, int argumentCount) {
         if (!(callee instanceof LoxCallable function)) {
             throw new RuntimeError(expr.paren(), "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren(), STR."Expected \{function.arity()} arguments but got \{arguments.size()}.");
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(expr.paren(), STR."Expected \{function.arity()} arguments but got \{argumentCount}.");
         }
 
-        return function.call(this, arguments);
+        return function;
+    }
+
+    private int globalSlotOf(Expr callee) {
+        if (callee instanceof Expr.Variable variable) {
+            var slot = locals.get(variable);
+            if (slot != null && slot.isGlobal()) {
+                return slot.index();
+            }
+        }
+        return CallSite.NOT_GLOBAL;
     }
 
     @Override
@@ -179,131 +524,221 @@ public class Interpreter implements AstWalker<Object> {
 
     @Override
     public Object walk(Expr.Variable variable) {
-        return environment.get(variable.name());
+        var slot = locals.get(variable);
+        if (slot == null) {
+            return globals.get(variable.name());
+        }
+        if (slot.next() != null) {
+            slot = defined(slot);
+        }
+        if (slot.isGlobal()) {
+            return globals.getGlobal(slot.index(), variable.name());
+        }
+        return environment.getAt(slot.depth(), slot.index());
+    }
+
+    // The first of a variable's slots that has been defined by now.
+    private Slot defined(Slot slot) {
+        while (slot.next() != null && !environment.isDefinedAt(slot.depth(), slot.index())) {
+            slot = slot.next();
+        }
+        return slot;
     }
 
     @Override
     public Object walk(Expr.Function expr) {
+        environment.capture();
         return new LoxFunction(new Stmt.Function(
             new Token(TokenType.IDENTIFIER, "*lambda*", null, -1),
             expr.params(),
             expr.body()
-        ), environment);
+        ), environment, null);
     }
 
     @Override
-    public void walk(Stmt.Block stmt) {
-        walkBlock(stmt.statements(), new Environment(environment));
+    public Completion walk(Stmt.Block stmt) {
+        return walkBlock(stmt.statements(), new Environment(environment));
     }
 
-    public void walkBlock(List<Stmt> statements, Environment environment) {
+    public Completion walkBlock(List<Stmt> statements, Environment environment) {
         var previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                walk(statement);
+                var completion = walk(statement);
+                if (completion != Completion.NORMAL) {
+                    return completion;
+                }
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
     @Override
-    public void walk(Stmt.Print stmt) {
-        var value = walk(stmt.expression());
-        System.out.println(stringify(value));
+    public Completion walk(Stmt.Print stmt) {
+        output.print(walk(stmt.expression()));
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.Return stmt) {
+    public Completion walk(Stmt.Return stmt) {
+        if (stmt.value() instanceof Expr.Call call) {
+            return tailCall(call);
+        }
+
         Object value = null;
         if (stmt.value() != null) {
             value = walk(stmt.value());
         }
 
-        throw new Return(value);
+        return Completion.returning(value);
+    }
+
+    /**
+     * Evaluates {@code return f(...)}. A Lox function isn't called from here
+     * but handed back to the {@link LoxFunction} that is returning, which
+     * runs it in place of itself, so tail calls don't nest JVM frames. The
+     * call site is cached like any other, and anything else is called the
+     * way {@link #walk(Expr.Call)} calls it.
+     */
+    private Completion tailCall(Expr.Call expr) {
+        var site = callSite(expr);
+        int version = version(site);
+        var callee = callee(site, expr, version);
+
+        if (callee instanceof LoxFunction) {
+            var values = values(expr.arguments());
+            return Completion.tailCall((LoxFunction) target(site, expr, callee, version, values.length), values);
+        }
+        try {
+            return Completion.returning(call(site, expr, callee, version, expr.arguments()));
+        } catch (NativeError error) {
+            throw error.at(expr.paren());
+        }
     }
 
     @Override
-    public void walk(Stmt.Expression stmt) {
+    public Completion walk(Stmt.Expression stmt) {
         walk(stmt.expression());
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.Function stmt) {
-        var function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name().lexeme(), function);
+    public Completion walk(Stmt.Function stmt) {
+        environment.capture();
+        var memo = memoizer != null ? memoizer.memoFor(stmt, globals) : null;
+        var function = new LoxFunction(stmt, environment, memo);
+        define(stmt.name(), function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.If stmt) {
+    public Completion walk(Stmt.If stmt) {
         if (isTruthy(walk(stmt.condition()))) {
-            walk(stmt.thenBranch());
+            return walk(stmt.thenBranch());
         } else if (stmt.elseBranch() != null) {
-            walk(stmt.elseBranch());
+            return walk(stmt.elseBranch());
         }
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.Var stmt) {
+    public Completion walk(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer() != null) {
             value = walk(stmt.initializer());
         }
         
-        environment.define(stmt.name().lexeme(), value);
+        define(stmt.name(), value);
+        return Completion.NORMAL;
+    }
+
+    private void define(Token name, Object value) {
+        if (environment == globals) {
+            globals.define(name.lexeme(), value);
+        } else {
+            environment.define(value);
+        }
     }
 
     @Override
-    public void walk(Stmt.While stmt) {
+    public Completion walk(Stmt.While stmt) {
+        var meter = this.meter;
         while (isTruthy(walk(stmt.condition()))) {
-            try {
-                walk(stmt.body());
-            } catch (ContinueLoop _) {
-                // Do nothing.
-            } catch (BreakLoop _) {
+            if (meter != null) {
+                meter.tick(stmt.keyword());
+            }
+            var completion = walk(stmt.body());
+            if (completion == Completion.BREAK) {
                 break;
             }
+            if (completion.kind == Completion.Kind.RETURN) {
+                return completion;
+            }
         }
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.For stmt) {
-        if (stmt.initializer() != null) {
+    public Completion walk(Stmt.For stmt) {
+        if (!(stmt.initializer() instanceof Stmt.Var)) {
+            if (stmt.initializer() != null) {
+                walk(stmt.initializer());
+            }
+            return loop(stmt);
+        }
+
+        // The loop variable lives in a scope of its own, as the resolver
+        // has it.
+        var previous = environment;
+        try {
+            environment = new Environment(previous);
             walk(stmt.initializer());
+            return loop(stmt);
+        } finally {
+            environment = previous;
         }
+    }
 
-        while (isTruthy(walk(stmt.condition()))) {
-            try {
-                walk(stmt.body());
-            } catch (ContinueLoop _) {
-                // Do nothing.
-            } catch (BreakLoop _) {
+    private Completion loop(Stmt.For stmt) {
+        var meter = this.meter;
+        while (stmt.condition() == null || isTruthy(walk(stmt.condition()))) {
+            if (meter != null) {
+                meter.tick(stmt.keyword());
+            }
+            var completion = walk(stmt.body());
+            if (completion == Completion.BREAK) {
                 break;
             }
+            if (completion.kind == Completion.Kind.RETURN) {
+                return completion;
+            }
 
             if (stmt.increment() != null) {
                 walk(stmt.increment());
             }
         }
+        return Completion.NORMAL;
     }
 
     @Override
-    public void walk(Stmt.LoopControl stmt) {
-        switch (stmt.token().type()) {
-            case BREAK -> throw new BreakLoop();
-            case CONTINUE -> throw new ContinueLoop();
-        }
+    public Completion walk(Stmt.LoopControl stmt) {
+        return switch (stmt.token().type()) {
+            case BREAK -> Completion.BREAK;
+            default -> Completion.CONTINUE;
+        };
     }
 
-    private boolean isTruthy(Object object) {
+    public static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    public static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) {
             return true;
         }
@@ -323,11 +758,11 @@ public class Interpreter implements AstWalker<Object> {
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    public String stringify(Object object) {
+    public static String stringify(Object object) {
         return stringify(object, false);
     }
 
-    public String stringify(Object object, boolean isRepl) {
+    public static String stringify(Object object, boolean isRepl) {
         if (object == null) {
             return "nil";
         }
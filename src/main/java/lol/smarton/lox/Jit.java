@@ -0,0 +1,186 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Stmt;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles hot functions into JVM classes so HotSpot can optimize them like
+ * any other Java code. A function is compiled once it has been called
+ * {@link #COMPILE_THRESHOLD} times; the generated source is compiled in
+ * memory with javac and loaded as a hidden class in this package.
+ * <p>
+ * Anything the compiler can't handle leaves the function in the tree walker.
+ * With logging on, every decision is reported on stderr.
+ */
+class Jit {
+    static final int COMPILE_THRESHOLD = 1000;
+
+    /**
+     * A compiled function body. Instances are bound to one closure. Like
+     * {@link LoxCallable}, the generated class implements the fixed entry
+     * point for its arity and the array one delegates to it.
+     */
+    interface Code {
+        Object run(Interpreter interpreter, Object[] arguments);
+
+        default Object run0(Interpreter interpreter) {
+            return run(interpreter, new Object[0]);
+        }
+
+        default Object run1(Interpreter interpreter, Object a0) {
+            return run(interpreter, new Object[] {a0});
+        }
+
+        default Object run2(Interpreter interpreter, Object a0, Object a1) {
+            return run(interpreter, new Object[] {a0, a1});
+        }
+
+        default Object run3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+            return run(interpreter, new Object[] {a0, a1, a2});
+        }
+    }
+
+    private record Compiled(MethodHandle constructor, Object[] constants) {}
+
+    // Marks declarations that failed to compile, so they aren't retried.
+    private static final Compiled FAILED = new Compiled(null, null);
+
+    private final boolean log;
+    private final Map<Stmt.Function, Compiled> compiled = new IdentityHashMap<>();
+    private final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    private StandardJavaFileManager fileManager;
+
+    Jit(boolean log) {
+        this.log = log;
+        if (javac == null) {
+            log("disabled: no Java compiler available in this runtime");
+        }
+    }
+
+    /**
+     * Returns compiled code for the function bound to its closure, or null if
+     * it has to keep running in the tree walker.
+     */
+    Code compile(Stmt.Function declaration, Environment closure, Interpreter interpreter) {
+        if (javac == null) {
+            return null;
+        }
+
+        var entry = compiled.computeIfAbsent(declaration, _ -> compile(declaration, interpreter));
+        if (entry == FAILED) {
+            return null;
+        }
+
+        try {
+            return (Code) entry.constructor().invoke(closure, entry.constants());
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Compiled compile(Stmt.Function declaration, Interpreter interpreter) {
+        var name = STR."\{declaration.name().lexeme()}/\{declaration.params().size()}";
+        long start = System.nanoTime();
+
+        JitCompiler.Result result;
+        try {
+            result = new JitCompiler(interpreter).compile(declaration);
+        } catch (JitCompiler.Unsupported e) {
+            log(STR."not compiling \{name}: \{e.getMessage()}");
+            return FAILED;
+        }
+
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        var bytes = javac(result, diagnostics);
+        if (bytes == null) {
+            var message = diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .findFirst()
+                .orElse("javac failed");
+            log(STR."failed to compile \{name}: \{message}");
+            return FAILED;
+        }
+
+        try {
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var constructor = lookup.findConstructor(
+                lookup.lookupClass(),
+                MethodType.methodType(void.class, Environment.class, Object[].class)
+            ).asType(MethodType.methodType(Object.class, Environment.class, Object[].class));
+
+            log(STR."compiled \{name} in \{(System.nanoTime() - start) / 1_000_000} ms");
+            return new Compiled(constructor, result.constants());
+        } catch (ReflectiveOperationException | LinkageError e) {
+            log(STR."failed to load \{name}: \{e}");
+            return FAILED;
+        }
+    }
+
+    private byte[] javac(JitCompiler.Result result, DiagnosticCollector<JavaFileObject> diagnostics) {
+        if (fileManager == null) {
+            fileManager = javac.getStandardFileManager(null, null, null);
+        }
+
+        var source = new SimpleJavaFileObject(
+            URI.create(STR."string:///lol/smarton/lox/\{result.className()}.java"),
+            JavaFileObject.Kind.SOURCE
+        ) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return result.source();
+            }
+        };
+
+        var output = new ByteArrayOutputStream();
+        var memory = new ForwardingJavaFileManager<>(fileManager) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create(STR."mem:///\{className}\{kind.extension}"), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return output;
+                    }
+                };
+            }
+        };
+
+        // The interpreter is built with preview features, so the generated
+        // class has to be as well or javac refuses to read our classes.
+        var options = List.of(
+            "--release", Integer.toString(Runtime.version().feature()),
+            "--enable-preview",
+            "-proc:none",
+            "-g:none"
+        );
+        var task = javac.getTask(null, memory, diagnostics, options, null, List.of(source));
+        if (!task.call()) {
+            return null;
+        }
+        return output.toByteArray();
+    }
+
+    private void log(String message) {
+        if (log) {
+            System.err.println(STR."[jit] \{message}");
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates the body of a function into the source of a Java class
+ * implementing {@link Jit.Code}. Lox locals of the function become Java
+ * locals, variables captured from enclosing scopes are read through the
+ * closure's environment and everything else goes through {@link JitRuntime}
+ * so the error messages match the interpreter's.
+ * <p>
+ * Functions that declare functions of their own need a real environment to
+ * capture, and functions that refer to a name an enclosing scope declares
+ * after them only find out which variable they mean at run time, so both
+ * are rejected with {@link Unsupported} and stay in the tree walker.
+ */
+class JitCompiler implements AstWalker<String, Void> {
+    static class Unsupported extends RuntimeException {
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    record Result(String className, String source, Object[] constants) {}
+
+    // Largest arity with its own entry point in LoxCallable and Jit.Code.
+    private static final int MAX_FIXED_ARITY = 3;
+
+    private final Interpreter interpreter;
+    private final StringBuilder body = new StringBuilder();
+    // Java names of the variables declared in each scope, in slot order.
+    private final List<List<String>> scopes = new ArrayList<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, String> constantNames = new IdentityHashMap<>();
+    private int localCount = 0;
+    private int tempCount = 0;
+    private int indent = 2;
+
+    JitCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    Result compile(Stmt.Function function) {
+        var className = STR."JitCompiled_\{sanitize(function.name().lexeme())}";
+
+        int arity = function.params().size();
+        boolean fixed = arity <= MAX_FIXED_ARITY;
+
+        beginScope();
+        var parameters = new ArrayList<String>();
+        for (int i = 0; i < arity; i++) {
+            var local = declare();
+            if (fixed) {
+                parameters.add(STR."Object \{local}");
+            } else {
+                line(STR."Object \{local} = arguments[\{i}];");
+            }
+        }
+        for (var statement : function.body()) {
+            walk(statement);
+        }
+        line("return null;");
+        endScope();
+
+        var source = new StringBuilder();
+        source.append("package lol.smarton.lox;\n\n");
+        source.append(STR."final class \{className} implements Jit.Code {\n");
+        source.append("    private final Environment closure;\n");
+        for (int i = 0; i < constants.size(); i++) {
+            source.append(STR."    private final \{typeOf(constants.get(i))} k\{i};\n");
+        }
+        source.append("\n");
+        source.append(STR."    \{className}(Environment closure, Object[] constants) {\n");
+        source.append("        this.closure = closure;\n");
+        for (int i = 0; i < constants.size(); i++) {
+            source.append(STR."        k\{i} = (\{typeOf(constants.get(i))}) constants[\{i}];\n");
+        }
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        if (fixed) {
+            var arguments = new ArrayList<String>();
+            for (int i = 0; i < arity; i++) {
+                arguments.add(STR."arguments[\{i}]");
+            }
+            var entry = STR."run\{arity}";
+            source.append("    public Object run(Interpreter interpreter, Object[] arguments) {\n");
+            source.append(STR."        return \{entry}(\{String.join(", ", prepend("interpreter", arguments))});\n");
+            source.append("    }\n\n");
+            source.append("    @Override\n");
+            source.append(STR."    public Object \{entry}(\{String.join(", ", prepend("Interpreter interpreter", parameters))}) {\n");
+        } else {
+            source.append("    public Object run(Interpreter interpreter, Object[] arguments) {\n");
+        }
+        for (int i = 0; i < tempCount; i++) {
+            source.append(STR."        Object t\{i} = null;\n");
+        }
+        source.append(body);
+        source.append("    }\n");
+        source.append("}\n");
+
+        return new Result(className, source.toString(), constants.toArray());
+    }
+
+    @Override
+    public String walk(Expr.Assign assign) {
+        var value = walk(assign.value());
+
+        var slot = lateBound(interpreter.slotOf(assign));
+        if (slot == null) {
+            return STR."JitRuntime.assignGlobal(interpreter, \{constant(assign.name())}, \{value})";
+        }
+        if (slot.isGlobal()) {
+            return STR."JitRuntime.assignGlobal(interpreter, \{slot.index()}, \{constant(assign.name())}, \{value})";
+        }
+        if (slot.depth() < scopes.size()) {
+            return STR."(\{local(slot)} = \{value})";
+        }
+        return STR."JitRuntime.assignAt(closure, \{slot.depth() - scopes.size()}, \{slot.index()}, \{value})";
+    }
+
+    @Override
+    public String walk(Expr.Binary binary) {
+        var left = walk(binary.left());
+        var right = walk(binary.right());
+        var operator = constant(binary.operator());
+
+        return switch (binary.operator().type()) {
+            case BANG_EQUAL -> STR."Boolean.valueOf(!Interpreter.isEqual(\{left}, \{right}))";
+            case EQUAL_EQUAL -> STR."Boolean.valueOf(Interpreter.isEqual(\{left}, \{right}))";
+            case GREATER -> STR."JitRuntime.greater(\{left}, \{right}, \{operator})";
+            case GREATER_EQUAL -> STR."JitRuntime.greaterEqual(\{left}, \{right}, \{operator})";
+            case LESS -> STR."JitRuntime.less(\{left}, \{right}, \{operator})";
+            case LESS_EQUAL -> STR."JitRuntime.lessEqual(\{left}, \{right}, \{operator})";
+            case PLUS -> STR."JitRuntime.add(\{left}, \{right}, \{operator})";
+            case MINUS -> STR."JitRuntime.subtract(\{left}, \{right}, \{operator})";
+            case STAR -> STR."JitRuntime.multiply(\{left}, \{right}, \{operator})";
+            case SLASH -> STR."JitRuntime.divide(\{left}, \{right}, \{operator})";
+            default -> throw new Unsupported(STR."operator '\{binary.operator().lexeme()}'");
+        };
+    }
+
+    @Override
+    public String walk(Expr.Call call) {
+        int count = call.arguments().size();
+        var entry = count <= MAX_FIXED_ARITY ? STR."call\{count}" : "call";
+        var code = new StringBuilder(STR."JitRuntime.\{entry}(interpreter, \{walk(call.callee())}, \{constant(call.paren())}");
+        for (var argument : call.arguments()) {
+            code.append(", ").append(walk(argument));
+        }
+        return code.append(")").toString();
+    }
+
+    // Like the tree walker, hands calls to Lox functions back to LoxFunction
+    // instead of making them; see Interpreter.tailCall.
+    private String tailCall(Expr.Call call) {
+        var code = new StringBuilder(STR."JitRuntime.tailCall(interpreter, \{walk(call.callee())}, \{constant(call.paren())}");
+        for (var argument : call.arguments()) {
+            code.append(", ").append(walk(argument));
+        }
+        return code.append(")").toString();
+    }
+
+    @Override
+    public String walk(Expr.Unary unary) {
+        var right = walk(unary.right());
+
+        return switch (unary.operator().type()) {
+            case MINUS -> STR."JitRuntime.negate(\{right}, \{constant(unary.operator())})";
+            case BANG -> STR."Boolean.valueOf(!Interpreter.isTruthy(\{right}))";
+            default -> throw new Unsupported(STR."operator '\{unary.operator().lexeme()}'");
+        };
+    }
+
+    @Override
+    public String walk(Expr.Literal literal) {
+        var value = literal.value();
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Boolean bool) {
+            return bool ? "Boolean.TRUE" : "Boolean.FALSE";
+        }
+        return constant(value);
+    }
+
+    @Override
+    public String walk(Expr.Logical logical) {
+        var left = walk(logical.left());
+        var right = walk(logical.right());
+        var temp = STR."t\{tempCount++}";
+
+        // The left operand is the result when it short-circuits, so it is
+        // kept in a temporary instead of being evaluated twice.
+        if (logical.operator().type() == TokenType.OR) {
+            return STR."(Interpreter.isTruthy(\{temp} = \{left}) ? \{temp} : \{right})";
+        }
+        return STR."(!Interpreter.isTruthy(\{temp} = \{left}) ? \{temp} : \{right})";
+    }
+
+    @Override
+    public String walk(Expr.Grouping grouping) {
+        return walk(grouping.expression());
+    }
+
+    @Override
+    public String walk(Expr.ExpressionList expressionList) {
+        var expressions = new ArrayList<String>();
+        for (var expr : expressionList.expressions()) {
+            expressions.add(walk(expr));
+        }
+        return STR."JitRuntime.sequence(\{String.join(", ", expressions)})";
+    }
+
+    @Override
+    public String walk(Expr.Ternary ternary) {
+        var condition = walk(ternary.cond());
+        var thenBranch = walk(ternary.thenBranch());
+        var elseBranch = walk(ternary.elseBranch());
+        return STR."(Interpreter.isTruthy(\{condition}) ? \{thenBranch} : \{elseBranch})";
+    }
+
+    @Override
+    public String walk(Expr.Variable variable) {
+        var slot = lateBound(interpreter.slotOf(variable));
+        if (slot == null) {
+            return STR."interpreter.globals.get(\{constant(variable.name())})";
+        }
+        if (slot.isGlobal()) {
+            return STR."interpreter.globals.getGlobal(\{slot.index()}, \{constant(variable.name())})";
+        }
+        if (slot.depth() < scopes.size()) {
+            return local(slot);
+        }
+        return STR."closure.getAt(\{slot.depth() - scopes.size()}, \{slot.index()})";
+    }
+
+    @Override
+    public String walk(Expr.Function function) {
+        throw new Unsupported("lambdas are not supported");
+    }
+
+    @Override
+    public Void walk(Stmt.Block stmt) {
+        line("{");
+        indent++;
+        beginScope();
+        for (var statement : stmt.statements()) {
+            walk(statement);
+        }
+        endScope();
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Expression stmt) {
+        line(STR."JitRuntime.discard(\{walk(stmt.expression())});");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Function stmt) {
+        throw new Unsupported("nested functions are not supported");
+    }
+
+    @Override
+    public Void walk(Stmt.If stmt) {
+        line(STR."if (Interpreter.isTruthy(\{walk(stmt.condition())})) {");
+        body(stmt.thenBranch());
+        if (stmt.elseBranch() != null) {
+            line("} else {");
+            body(stmt.elseBranch());
+        }
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Print stmt) {
+        line(STR."JitRuntime.print(interpreter, \{walk(stmt.expression())});");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Return stmt) {
+        var value = switch (stmt.value()) {
+            case null -> "null";
+            case Expr.Call call -> tailCall(call);
+            default -> walk(stmt.value());
+        };
+        // Lox allows statements after a return, javac doesn't allow
+        // unreachable ones. Jumps are guarded so javac never sees them as
+        // the end of a block.
+        line(STR."if (true) return \{value};");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Var stmt) {
+        var value = stmt.initializer() == null ? "null" : walk(stmt.initializer());
+        line(STR."Object \{declare()} = \{value};");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.While stmt) {
+        line(STR."while (Interpreter.isTruthy(\{walk(stmt.condition())})) {");
+        tick(stmt.keyword());
+        body(stmt.body());
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.For stmt) {
+        // A variable declared by the initializer gets a scope of its own, as
+        // in the resolver.
+        boolean scoped = stmt.initializer() instanceof Stmt.Var;
+        if (scoped) {
+            line("{");
+            indent++;
+            beginScope();
+        }
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+
+        // A missing condition is spelled out so javac doesn't treat the loop
+        // as infinite and reject whatever follows it.
+        var condition = stmt.condition() == null ? "Boolean.TRUE" : walk(stmt.condition());
+        var increment = stmt.increment() == null ? "" : STR."JitRuntime.discard(\{walk(stmt.increment())})";
+        line(STR."for (; Interpreter.isTruthy(\{condition}); \{increment}) {");
+        tick(stmt.keyword());
+        body(stmt.body());
+        line("}");
+        if (scoped) {
+            endScope();
+            indent--;
+            line("}");
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.LoopControl stmt) {
+        line(stmt.token().type() == TokenType.BREAK ? "if (true) break;" : "if (true) continue;");
+        return null;
+    }
+
+    // Counts an iteration against the budget, like the interpreter's loops.
+    private void tick(Token keyword) {
+        indent++;
+        line(STR."JitRuntime.tick(interpreter, \{constant(keyword)});");
+        indent--;
+    }
+
+    private void body(Stmt stmt) {
+        indent++;
+        walk(stmt);
+        indent--;
+    }
+
+    private void beginScope() {
+        scopes.add(new ArrayList<>());
+    }
+
+    private void endScope() {
+        scopes.removeLast();
+    }
+
+    private String declare() {
+        var name = STR."l\{localCount++}";
+        scopes.getLast().add(name);
+        return name;
+    }
+
+    // Which variable a name declared after the function in an enclosing
+    // scope means is only known while it runs, so that is left to the tree
+    // walker.
+    private static Interpreter.Slot lateBound(Interpreter.Slot slot) {
+        if (slot != null && slot.next() != null) {
+            throw new Unsupported("refers to a name declared after it");
+        }
+        return slot;
+    }
+
+    private String local(Interpreter.Slot slot) {
+        var scope = scopes.get(scopes.size() - 1 - slot.depth());
+        if (slot.index() >= scope.size()) {
+            throw new Unsupported("variable used before its declaration");
+        }
+        return scope.get(slot.index());
+    }
+
+    private String constant(Object value) {
+        return constantNames.computeIfAbsent(value, _ -> {
+            constants.add(value);
+            return STR."k\{constants.size() - 1}";
+        });
+    }
+
+    private static List<String> prepend(String first, List<String> rest) {
+        var result = new ArrayList<String>(rest.size() + 1);
+        result.add(first);
+        result.addAll(rest);
+        return result;
+    }
+
+    private static String typeOf(Object constant) {
+        return constant instanceof Token ? "Token" : "Object";
+    }
+
+    private static String sanitize(String name) {
+        var result = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            var c = name.charAt(i);
+            result.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        return result.toString();
+    }
+
+    private void line(String code) {
+        body.append("    ".repeat(indent)).append(code).append('\n');
+    }
+}
@@ -0,0 +1,184 @@
+package lol.smarton.lox;
+
+/**
+ * Operations called from compiled functions. Each one behaves exactly like
+ * the matching case in {@link Interpreter}, errors included; they are small
+ * enough for HotSpot to inline into the compiled code.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l + r;
+        }
+        if (left instanceof String l && right instanceof String r) {
+            return l + r;
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static Object subtract(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l - r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object multiply(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l * r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object divide(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            if (r == 0) {
+                throw new RuntimeError(operator, "Division by 0.");
+            }
+            return l / r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object greater(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l > r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l >= r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object less(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l < r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l <= r;
+        }
+        throw numbers(operator);
+    }
+
+    static Object negate(Object operand, Token operator) {
+        if (operand instanceof Double value) {
+            return -value;
+        }
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static void tick(Interpreter interpreter, Token keyword) {
+        if (interpreter.meter != null) {
+            interpreter.meter.tick(keyword);
+        }
+    }
+
+    static Object call0(Interpreter interpreter, Object callee, Token paren) {
+        try {
+            return function(callee, paren, 0).call0(interpreter);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    static Object call1(Interpreter interpreter, Object callee, Token paren, Object a0) {
+        try {
+            return function(callee, paren, 1).call1(interpreter, a0);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    static Object call2(Interpreter interpreter, Object callee, Token paren, Object a0, Object a1) {
+        try {
+            return function(callee, paren, 2).call2(interpreter, a0, a1);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    static Object call3(Interpreter interpreter, Object callee, Token paren, Object a0, Object a1, Object a2) {
+        try {
+            return function(callee, paren, 3).call3(interpreter, a0, a1, a2);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Token paren, Object... arguments) {
+        try {
+            return function(callee, paren, arguments.length).call(interpreter, arguments);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    /**
+     * A call in tail position. Returns the pending call for a Lox function,
+     * which {@link LoxFunction} makes once the compiled code has returned.
+     */
+    static Object tailCall(Interpreter interpreter, Object callee, Token paren, Object... arguments) {
+        var function = function(callee, paren, arguments.length);
+        if (function instanceof LoxFunction loxFunction) {
+            return Completion.tailCall(loxFunction, arguments);
+        }
+        try {
+            return function.call(interpreter, arguments);
+        } catch (NativeError error) {
+            throw error.at(paren);
+        }
+    }
+
+    private static LoxCallable function(Object callee, Token paren, int argumentCount) {
+        if (!(callee instanceof LoxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, STR."Expected \{function.arity()} arguments but got \{argumentCount}.");
+        }
+
+        return function;
+    }
+
+    static Object assignGlobal(Interpreter interpreter, Token name, Object value) {
+        interpreter.globals.assign(name, value);
+        return value;
+    }
+
+    static Object assignGlobal(Interpreter interpreter, int slot, Token name, Object value) {
+        interpreter.globals.assignGlobal(slot, name, value);
+        return value;
+    }
+
+    static Object assignAt(Environment environment, int depth, int slot, Object value) {
+        environment.assignAt(depth, slot, value);
+        return value;
+    }
+
+    static Object sequence(Object... values) {
+        return values[values.length - 1];
+    }
+
+    static void print(Interpreter interpreter, Object value) {
+        interpreter.output.print(value);
+    }
+
+    static void discard(Object value) {
+        // Evaluated for its side effects only.
+    }
+
+    private static RuntimeError numbers(Token operator) {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -4,40 +4,343 @@ package lol.smarton.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+import lol.smarton.lox.ast.Stmt;
+import lol.smarton.lox.nodes.NodeInterpreter;
+import lol.smarton.lox.vm.Compiler;
+import lol.smarton.lox.vm.VM;
+
 import static java.lang.StringTemplate.STR;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    private static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
+    private enum Engine {
+        TREE,
+        VM,
+        NODES
+    }
+
+    // Results kept per pure function with --memoize.
+    private static final int DEFAULT_MEMO_CAPACITY = 1024;
+    // Sampling interval in microseconds and rows in the table with --profile.
+    private static final long DEFAULT_PROFILE_INTERVAL = 1000;
+    private static final int PROFILE_TOP = 20;
+    // Buffer size for --output and --output-buffer without a size.
+    private static final int DEFAULT_OUTPUT_BUFFER = 64 * 1024;
+
+    private static Interpreter interpreter;
+    private static VM vm;
+    private static NodeInterpreter nodeInterpreter;
+    private static Reporter reporter;
+    private static final SymbolTable symbols = new SymbolTable();
+    private static Engine engine = Engine.TREE;
+    private static boolean optimize = false;
+    private static boolean stream = false;
+    private static AstCache cache = null;
+    private static Output output = Output.of(System.out);
+    private static Path profile = null;
+    private static long profileInterval = DEFAULT_PROFILE_INTERVAL;
+    private static Budget budget = Budget.UNLIMITED;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        var scripts = new ArrayList<String>();
+        Path cacheDirectory = null;
+        boolean cacheLog = false;
+        Path precompile = null;
+        boolean jit = false;
+        boolean jitLog = false;
+        int memoCapacity = 0;
+        boolean memoLog = false;
+        Path outputFile = null;
+        int outputBuffer = 0;
+        long maxSteps = 0;
+        long maxMillis = 0;
+        int maxDepth = 0;
+        long yieldEvery = 0;
+        Path serve = null;
+        Path connect = null;
+        for (var arg : args) {
+            switch (arg) {
+                case "--engine=tree" -> engine = Engine.TREE;
+                case "--engine=vm" -> engine = Engine.VM;
+                case "--engine=nodes" -> engine = Engine.NODES;
+                case "--optimize" -> optimize = true;
+                case "--jit" -> jit = true;
+                case "--jit-log" -> jitLog = true;
+                case "--stream" -> stream = true;
+                case "--cache" -> cacheDirectory = AstCache.defaultDirectory();
+                case "--cache-log" -> cacheLog = true;
+                case "--memoize" -> memoCapacity = DEFAULT_MEMO_CAPACITY;
+                case "--memoize-log" -> memoLog = true;
+                case "--profile" -> profile = Paths.get("profile.folded");
+                case "--output-buffer" -> outputBuffer = DEFAULT_OUTPUT_BUFFER;
+                case "--serve" -> serve = ScriptServer.defaultSocket();
+                case "--connect" -> connect = ScriptServer.defaultSocket();
+                default -> {
+                    if (arg.startsWith("--cache=")) {
+                        cacheDirectory = Paths.get(arg.substring("--cache=".length()));
+                    } else if (arg.startsWith("--memoize=")) {
+                        try {
+                            memoCapacity = Integer.parseInt(arg.substring("--memoize=".length()));
+                        } catch (NumberFormatException e) {
+                            usage();
+                        }
+                        if (memoCapacity <= 0) {
+                            usage();
+                        }
+                    } else if (arg.startsWith("--profile=")) {
+                        profile = Paths.get(arg.substring("--profile=".length()));
+                    } else if (arg.startsWith("--profile-interval=")) {
+                        try {
+                            profileInterval = Long.parseLong(arg.substring("--profile-interval=".length()));
+                        } catch (NumberFormatException e) {
+                            usage();
+                        }
+                        if (profileInterval <= 0) {
+                            usage();
+                        }
+                    } else if (arg.startsWith("--output=")) {
+                        outputFile = Paths.get(arg.substring("--output=".length()));
+                    } else if (arg.startsWith("--output-buffer=")) {
+                        try {
+                            outputBuffer = Integer.parseInt(arg.substring("--output-buffer=".length()));
+                        } catch (NumberFormatException e) {
+                            usage();
+                        }
+                        if (outputBuffer <= 0) {
+                            usage();
+                        }
+                    } else if (arg.startsWith("--max-steps=")) {
+                        maxSteps = positiveLong(arg.substring("--max-steps=".length()));
+                    } else if (arg.startsWith("--max-time=")) {
+                        maxMillis = positiveLong(arg.substring("--max-time=".length()));
+                    } else if (arg.startsWith("--max-depth=")) {
+                        maxDepth = (int) Math.min(positiveLong(arg.substring("--max-depth=".length())), Integer.MAX_VALUE);
+                    } else if (arg.startsWith("--yield-every=")) {
+                        yieldEvery = positiveLong(arg.substring("--yield-every=".length()));
+                    } else if (arg.startsWith("--serve=")) {
+                        serve = Paths.get(arg.substring("--serve=".length()));
+                    } else if (arg.startsWith("--connect=")) {
+                        connect = Paths.get(arg.substring("--connect=".length()));
+                    } else if (arg.startsWith("--precompile=")) {
+                        precompile = Paths.get(arg.substring("--precompile=".length()));
+                    } else if (arg.startsWith("--")) {
+                        usage();
+                    } else {
+                        scripts.add(arg);
+                    }
+                }
+            }
+        }
+
+        // The client only passes the script on, so it sets up nothing else.
+        if (connect != null) {
+            if (serve != null || scripts.size() != 1) {
+                usage();
+            }
+            System.exit(ScriptClient.run(connect, Paths.get(scripts.getFirst())));
+        }
+
+        if (cacheDirectory != null || cacheLog || precompile != null) {
+            cache = new AstCache(cacheDirectory != null ? cacheDirectory : AstCache.defaultDirectory(), cacheLog);
+        }
+
+        if (outputFile != null || outputBuffer > 0) {
+            int capacity = outputBuffer > 0 ? outputBuffer : DEFAULT_OUTPUT_BUFFER;
+            output = outputFile != null ? BufferedOutput.toFile(outputFile, capacity) : BufferedOutput.toStandardOut(capacity);
+        }
+
+        reporter = new Reporter(System.out, System.err, output);
+        interpreter = new Interpreter(reporter);
+        interpreter.setOutput(output);
+        vm = new VM(reporter);
+        vm.setOutput(output);
+        nodeInterpreter = new NodeInterpreter(reporter);
+        nodeInterpreter.setOutput(output);
+
+        if (jit || jitLog) {
+            interpreter.enableJit(jitLog);
+        }
+        if (memoCapacity > 0 || memoLog) {
+            interpreter.enableMemoization(memoCapacity > 0 ? memoCapacity : DEFAULT_MEMO_CAPACITY, memoLog);
+        }
+
+        // Only the tree walker keeps a Lox call stack to sample.
+        if (profile != null && engine != Engine.TREE) {
+            usage();
+        }
+
+        budget = new Budget(maxSteps, maxMillis, maxDepth, yieldEvery);
+        // And only it counts steps against a budget.
+        if (!budget.isUnlimited() && engine != Engine.TREE) {
+            usage();
+        }
+
+        // Scripts sent to the server run in contexts of their own, which
+        // the tree walker provides.
+        if (serve != null) {
+            if (engine != Engine.TREE || !scripts.isEmpty() || precompile != null) {
+                usage();
+            }
+            if (!new ScriptServer(serve, new LoxEngine(optimize), budget).serve()) {
+                System.exit(ScriptServer.UNAVAILABLE);
+            }
+            return;
+        }
+
+        if (precompile != null) {
+            if (!scripts.isEmpty()) {
+                usage();
+            }
+            precompile(precompile);
+        } else if (scripts.size() > 1) {
+            usage();
+        } else if (scripts.size() == 1) {
+            runFile(scripts.getFirst());
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|vm|nodes] [--optimize] [--jit|--jit-log] [--stream] [--cache[=dir]] [--cache-log] [--memoize[=size]] [--memoize-log] [--profile[=file]] [--profile-interval=us] [--output=file] [--output-buffer[=bytes]] [--max-steps=n] [--max-time=ms] [--max-depth=n] [--yield-every=n] [--serve[=socket]] [--precompile=dir | [--connect[=socket]] script]");
+        System.exit(64);
+    }
+
+    private static long positiveLong(String value) {
+        long result = 0;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if (result <= 0) {
+            usage();
+        }
+        return result;
+    }
+
     private static void runFile(String path) throws IOException {
-        var source = Files.readString(Paths.get(path));
-        run(source);
+        var file = Paths.get(path);
+        var source = map(file);
+        if (profile != null) {
+            interpreter.startProfiling(profileInterval);
+        }
+        interpreter.setBudget(budget);
+        try {
+            if (cache != null && source != null) {
+                runCached(file, source);
+            } else {
+                try (var reader = source != null ? new ByteBufferReader(source) : Files.newBufferedReader(file)) {
+                    run(new Parser(new Scanner(reader, reporter, symbols).stream(), reporter), false);
+                }
+            }
+        } finally {
+            output.flush();
+        }
+        interpreter.reportMemoization();
+        if (profile != null) {
+            interpreter.stopProfiling(profile, PROFILE_TOP);
+        }
 
-        if (hadError) {
+        if (reporter.hadError()) {
             System.exit(65);
         }
-        if (hadRuntimeError) {
+        if (reporter.hadRuntimeError()) {
             System.exit(70);
         }
     }
 
+    /**
+     * Maps the file instead of reading it onto the heap; the scanner decodes
+     * it as it goes. Returns null for files too large to map in one piece.
+     */
+    private static ByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Runs the cached syntax tree of a script if there is one. Otherwise the
+     * whole script is parsed before anything runs, even with --stream, so it
+     * can be stored for next time.
+     */
+    private static void runCached(Path path, ByteBuffer source) throws IOException {
+        var key = AstCache.key(source);
+        var stmts = cache.load(key, path, symbols);
+        if (stmts == null) {
+            try (var reader = new ByteBufferReader(source)) {
+                stmts = new Parser(new Scanner(reader, reporter, symbols).stream(), reporter).parse();
+            }
+            if (reporter.hadError()) {
+                return;
+            }
+            cache.store(key, path, stmts);
+        }
+
+        run(stmts, false);
+    }
+
+    /**
+     * Parses every .lox file under a directory into the cache. Scripts with
+     * syntax errors are reported and skipped; they make the exit code 65.
+     */
+    private static void precompile(Path directory) throws IOException {
+        List<Path> scripts;
+        try (var files = Files.walk(directory)) {
+            scripts = files
+                .filter(file -> Files.isRegularFile(file) && file.toString().endsWith(".lox"))
+                .sorted()
+                .toList();
+        }
+
+        int compiled = 0;
+        int cached = 0;
+        int failed = 0;
+        for (var script : scripts) {
+            var source = map(script);
+            if (source == null) {
+                System.err.println(STR."[cache] skipping \{script}: too large");
+                continue;
+            }
+
+            var key = AstCache.key(source);
+            if (cache.contains(key)) {
+                cached++;
+                continue;
+            }
+
+            reporter.clearError();
+            List<Stmt> stmts;
+            try (var reader = new ByteBufferReader(source)) {
+                stmts = new Parser(new Scanner(reader, reporter, symbols).stream(), reporter).parse();
+            }
+            if (reporter.hadError()) {
+                failed++;
+                continue;
+            }
+            cache.store(key, script, stmts);
+            compiled++;
+        }
+
+        System.err.println(STR."[cache] \{compiled} compiled, \{cached} already cached, \{failed} with errors");
+        if (failed > 0) {
+            System.exit(65);
+        }
+    }
+
     private static void runPrompt() throws IOException {
         var inputStreamReader = new InputStreamReader(System.in);
         var reader = new BufferedReader(inputStreamReader);
@@ -48,63 +351,171 @@ public class Lox {
             if (line == null) {
                 break;
             }
+            interpreter.setBudget(budget);
             run(line, true);
-            hadError = false;
+            output.flush();
+            reporter.clearError();
         }
     }
 
-    private static void run(String source) {
-        run(source, false);
-    }
-
     private static void run(String source, boolean isRepl) {
-        var scanner = new Scanner(source);
-        var tokens = scanner.scanTokens();
-        var parser = new Parser(tokens);
+        var scan = Phase.SCAN.start();
+        var scanner = new Scanner(source, reporter, symbols);
+        var tokens = scanner.scanBuffer();
+        scan.end();
+        var parser = new Parser(tokens.stream(), reporter);
 
         if (isRepl && tokens.size() >= 2) {
-            var firstToken = tokens.getFirst();
-            var lastNonEofToken = tokens.get(tokens.size() - 2);
+            var firstType = tokens.type(0);
+            var lastNonEofType = tokens.type(tokens.size() - 2);
 
             var stmtFirstTokens = List.of(TokenType.CLASS, TokenType.ELSE, TokenType.FUN, TokenType.FOR, TokenType.IF, TokenType.PRINT, TokenType.RETURN, TokenType.VAR, TokenType.WHILE);
             var stmtLastTokens = List.of(TokenType.RIGHT_BRACE, TokenType.SEMICOLON);
-            if (!stmtLastTokens.contains(lastNonEofToken.type()) && !stmtFirstTokens.contains(firstToken.type())) {
+            if (!stmtLastTokens.contains(lastNonEofType) && !stmtFirstTokens.contains(firstType)) {
                 // Pretty confident user didn't mean to type a statement.
                 var expr = parser.parseExpr();
-                var value = interpreter.walk(expr);
-                System.out.println(interpreter.stringify(value, true));
+                if (reporter.hadError()) {
+                    return;
+                }
+                if (optimize) {
+                    expr = new Optimizer().optimize(expr);
+                }
+
+                Object value = null;
+                switch (engine) {
+                    case TREE -> {
+                        new Resolver(interpreter).resolve(expr);
+                        value = interpreter.walk(expr);
+                    }
+                    case VM -> {
+                        var script = new Compiler(reporter).compile(expr);
+                        if (reporter.hadError()) {
+                            return;
+                        }
+                        value = vm.evaluate(script);
+                    }
+                    case NODES -> {
+                        var node = nodeInterpreter.build(expr);
+                        if (reporter.hadError()) {
+                            return;
+                        }
+                        value = nodeInterpreter.evaluate(node);
+                    }
+                }
+                output.flush();
+                System.out.println(Interpreter.stringify(value, true));
                 return;
             }
         }
 
+        run(parser, isRepl);
+    }
+
+    private static void run(Parser parser, boolean isRepl) {
+        if (stream && !isRepl && engine == Engine.TREE) {
+            runStreaming(parser);
+            return;
+        }
+
+        var parse = Phase.PARSE.start();
         var stmts = parser.parse();
-        if (hadError) {
+        parse.end();
+        if (reporter.hadError()) {
             return;
         }
-        interpreter.interpret(stmts);
-    }
 
-    public static void error(int line, String message) {
-        report(line, "", message);
+        run(stmts, isRepl);
     }
 
-    private static void report(int line, String where, String message) {
-        System.out.println(
-            STR."[line \{line}] Error \{where}: \{message}"
-        );
-        hadError = true;
-    }
+    private static void run(List<Stmt> stmts, boolean isRepl) {
+        if (optimize) {
+            var phase = Phase.OPTIMIZE.start();
+            var optimizer = new Optimizer();
+            stmts = optimizer.optimize(stmts);
+            phase.end();
+            if (!isRepl) {
+                System.err.println(STR."[optimizer] Eliminated \{optimizer.eliminated()} nodes.");
+            }
+        }
 
-    public static void error(Token token, String message) {
-        if (token.type() == TokenType.EOF) {
-            report(token.line(), " at end", message);
-        } else {
-            report(token.line(), STR." at '\{token.lexeme()}'", message);
+        switch (engine) {
+            case TREE -> {
+                var resolve = Phase.RESOLVE.start();
+                var resolver = new Resolver(interpreter);
+                resolver.resolve(stmts);
+                resolve.end();
+                if (reporter.hadError()) {
+                    return;
+                }
+
+                var interpret = Phase.INTERPRET.start();
+                interpreter.interpret(stmts);
+                interpret.end();
+            }
+            case VM -> {
+                var compile = Phase.COMPILE.start();
+                var script = new Compiler(reporter).compile(stmts);
+                compile.end();
+                if (reporter.hadError()) {
+                    return;
+                }
+
+                var interpret = Phase.INTERPRET.start();
+                vm.interpret(script);
+                interpret.end();
+            }
+            case NODES -> {
+                var compile = Phase.COMPILE.start();
+                var nodes = nodeInterpreter.build(stmts);
+                compile.end();
+                if (reporter.hadError()) {
+                    return;
+                }
+
+                var interpret = Phase.INTERPRET.start();
+                nodeInterpreter.interpret(nodes);
+                interpret.end();
+            }
         }
     }
 
-    public static void runtimeError(RuntimeError error) {
-        System.err.println(STR."\{error.getMessage()}\n[line \{error.token.line()}]");
-        hadRuntimeError = true;
+    /**
+     * Runs each top-level declaration as soon as it has been parsed, so only
+     * one statement's tokens and syntax tree are alive at a time. An error
+     * stops execution, but the rest of the script is still checked the way
+     * it would have been in one piece: after a syntax error it is only
+     * parsed, after a resolution error it is parsed and resolved.
+     */
+    private static void runStreaming(Parser parser) {
+        // The phases are interleaved, so they're recorded as one.
+        var phase = Phase.STREAM.start();
+        var optimizer = optimize ? new Optimizer() : null;
+        var resolver = new Resolver(interpreter);
+        boolean syntaxError = false;
+
+        while (!parser.atEnd() && !reporter.hadRuntimeError()) {
+            var stmt = parser.parseDeclaration();
+            syntaxError |= stmt == null;
+            if (syntaxError) {
+                continue;
+            }
+
+            var stmts = List.of(stmt);
+            if (optimizer != null) {
+                stmts = optimizer.optimize(stmts);
+            }
+            resolver.resolve(stmts);
+            if (reporter.hadError()) {
+                continue;
+            }
+            interpreter.interpret(stmts);
+            interpreter.release(stmts);
+        }
+
+        phase.end();
+
+        if (optimizer != null) {
+            System.err.println(STR."[optimizer] Eliminated \{optimizer.eliminated()} nodes.");
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,30 @@
 package lol.smarton.lox;
 
-import java.util.List;
-
+/**
+ * Something Lox code can call. Callers check {@link #arity()} first and then
+ * use the entry point matching the number of arguments: {@code call0} to
+ * {@code call3} for small calls, so no argument array has to be allocated,
+ * and {@link #call(Interpreter, Object...)} for anything larger. The fixed
+ * entry points fall back to the array one unless a callable overrides them.
+ */
 public interface LoxCallable {
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+
+    Object call(Interpreter interpreter, Object... arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter);
+    }
+
+    default Object call1(Interpreter interpreter, Object a0) {
+        return call(interpreter, a0);
+    }
+
+    default Object call2(Interpreter interpreter, Object a0, Object a1) {
+        return call(interpreter, a0, a1);
+    }
+
+    default Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        return call(interpreter, a0, a1, a2);
+    }
 }
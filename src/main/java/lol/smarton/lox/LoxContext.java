@@ -0,0 +1,86 @@
+package lol.smarton.lox;
+
+import java.io.PrintStream;
+
+/**
+ * An isolated place to run Lox: its own globals, its own output and its own
+ * errors. Nothing in a context is shared with another, so contexts can run
+ * on different threads at the same time. A single context is not thread
+ * safe and runs one program at a time.
+ * <p>
+ * Globals defined by one program are visible to the next one run in the
+ * same context, like lines typed into the REPL. A run returns once the
+ * tasks it spawned have finished too, so none of them is still running
+ * when the next program is resolved or the context is dropped.
+ */
+public final class LoxContext {
+    /**
+     * Exit codes of a run, the same the command line uses.
+     */
+    public static final int OK = 0;
+    public static final int SYNTAX_ERROR = 65;
+    public static final int RUNTIME_ERROR = 70;
+
+    private final LoxEngine engine;
+    private final Output output;
+    private final Reporter reporter;
+    private final Interpreter interpreter;
+    // Names scanned by this context, dropped along with it.
+    private final SymbolTable symbols = new SymbolTable();
+    private Budget budget = Budget.UNLIMITED;
+
+    LoxContext(LoxEngine engine, Output output, PrintStream errors, PrintStream runtimeErrors) {
+        this.engine = engine;
+        this.output = output;
+        this.reporter = new Reporter(errors, runtimeErrors, output);
+        this.interpreter = new Interpreter(reporter);
+        interpreter.setOutput(output);
+    }
+
+    /**
+     * Limits each run from now on, for contexts running scripts that can't
+     * be trusted to finish; see {@link Budget}. A run over budget ends with
+     * a runtime error.
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Compiles and runs a script in this context.
+     */
+    public int run(String source) {
+        reporter.reset();
+        var program = engine.compile(source, reporter, symbols);
+        if (program == null) {
+            return SYNTAX_ERROR;
+        }
+        return run(program);
+    }
+
+    /**
+     * Runs a compiled program, returning {@link #OK}, {@link #SYNTAX_ERROR}
+     * for a resolution error or {@link #RUNTIME_ERROR}.
+     */
+    public int run(Program program) {
+        reporter.reset();
+        var statements = program.statements();
+        var resolve = Phase.RESOLVE.start();
+        new Resolver(interpreter).resolve(statements);
+        resolve.end();
+        if (reporter.hadError()) {
+            return SYNTAX_ERROR;
+        }
+
+        var interpret = Phase.INTERPRET.start();
+        interpreter.setBudget(budget);
+        try {
+            interpreter.interpret(statements);
+        } finally {
+            interpreter.awaitTasks();
+            output.flush();
+            interpret.end();
+        }
+        return reporter.hadRuntimeError() ? RUNTIME_ERROR : OK;
+    }
+}
@@ -0,0 +1,74 @@
+package lol.smarton.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Entry point for running Lox inside another program. An engine compiles
+ * source into {@link Program}s and creates {@link LoxContext}s to run them
+ * in. It holds no mutable state, so one engine can be shared by every
+ * thread; contexts are the unit of isolation, down to the names they have
+ * interned.
+ * <pre>{@code
+ * var engine = new LoxEngine();
+ * var program = engine.compile(source, new Reporter());
+ * executor.submit(() -> engine.newContext(out, err).run(program));
+ * }</pre>
+ */
+public final class LoxEngine {
+    private final boolean optimize;
+
+    public LoxEngine() {
+        this(false);
+    }
+
+    /**
+     * An engine that runs the {@link Optimizer} over everything it compiles.
+     */
+    public LoxEngine(boolean optimize) {
+        this.optimize = optimize;
+    }
+
+    /**
+     * Scans and parses a script. Errors go to {@code reporter}; the result is
+     * null if there were any.
+     */
+    public Program compile(String source, Reporter reporter) {
+        return compile(source, reporter, new SymbolTable());
+    }
+
+    Program compile(String source, Reporter reporter, SymbolTable symbols) {
+        var scan = Phase.SCAN.start();
+        var tokens = new Scanner(source, reporter, symbols).scanBuffer();
+        scan.end();
+
+        var parse = Phase.PARSE.start();
+        var statements = new Parser(tokens.stream(), reporter).parse();
+        parse.end();
+        if (reporter.hadError()) {
+            return null;
+        }
+
+        if (optimize) {
+            var phase = Phase.OPTIMIZE.start();
+            statements = new Optimizer().optimize(statements);
+            phase.end();
+        }
+        return new Program(statements);
+    }
+
+    /**
+     * A fresh context with its own globals. Printed values go to {@code out},
+     * as do syntax errors, the way the command line reports them; runtime
+     * errors go to {@code err}.
+     */
+    public LoxContext newContext(PrintStream out, PrintStream err) {
+        return new LoxContext(this, Output.of(out), out, err);
+    }
+
+    /**
+     * A fresh context that prints through {@code output}.
+     */
+    public LoxContext newContext(Output output, PrintStream errors, PrintStream runtimeErrors) {
+        return new LoxContext(this, output, errors, runtimeErrors);
+    }
+}
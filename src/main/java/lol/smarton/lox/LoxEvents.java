@@ -0,0 +1,148 @@
+package lol.smarton.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for what the interpreter is doing, so it can be
+ * lined up with GC and CPU activity in JMC.
+ * <p>
+ * Nothing here touches JFR until the JVM starts recording: the interpreter
+ * checks one of the flags below before doing any work for an event, and
+ * they are only switched on by a listener while a recording has the
+ * matching event enabled.
+ */
+final class LoxEvents {
+    // Which events are being recorded. Even loading an event class makes
+    // JFR set up its metadata, so none of them is touched while these are
+    // off.
+    static volatile boolean calls = false;
+    static volatile boolean phases = false;
+    static volatile boolean errors = false;
+
+    private static boolean installed = false;
+
+    private LoxEvents() {}
+
+    @Name("lox.Call")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Depth")
+        @Description("Lox calls on the stack below this one")
+        int depth;
+    }
+
+    @Name("lox.Phase")
+    @Label("Lox Script Phase")
+    @Category("Lox")
+    @StackTrace(false)
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        /**
+         * A phase that starts now; commit it when it's over.
+         */
+        static Phase start(String phase) {
+            var event = new Phase();
+            event.phase = phase;
+            event.begin();
+            return event;
+        }
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    static final class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.Counters")
+    @Label("Lox Counters")
+    @Category("Lox")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Counters extends Event {
+        @Label("Environments")
+        @Description("Scopes allocated while counters were on")
+        long environments;
+
+        @Label("Calls")
+        @Description("Lox function calls made while counters were on")
+        long calls;
+    }
+
+    /**
+     * Starts listening for recordings. Registering the events themselves is
+     * left until the recorder comes up, so a JVM that never records doesn't
+     * load anything more than the listener.
+     */
+    static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                FlightRecorder.addPeriodicEvent(Counters.class, LoxEvents::emitCounters);
+                // Recordings started with the JVM are already running.
+                update();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+    }
+
+    private static void update() {
+        calls = EventType.getEventType(Call.class).isEnabled();
+        phases = EventType.getEventType(Phase.class).isEnabled();
+        errors = EventType.getEventType(ScriptError.class).isEnabled();
+        Metrics.countForEvents(EventType.getEventType(Counters.class).isEnabled() || calls);
+    }
+
+    static void error(RuntimeError error) {
+        if (!errors) {
+            return;
+        }
+
+        var event = new ScriptError();
+        if (event.shouldCommit()) {
+            event.message = error.getMessage();
+            event.line = error.token.line();
+            event.commit();
+        }
+    }
+
+    private static void emitCounters() {
+        var event = new Counters();
+        event.environments = Metrics.environments.sum();
+        event.calls = Metrics.calls.sum();
+        event.commit();
+    }
+}
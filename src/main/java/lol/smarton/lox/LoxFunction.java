@@ -2,15 +2,24 @@ package lol.smarton.lox;
 
 import lol.smarton.lox.ast.Stmt;
 
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
+    private int calls = 0;
+    private Jit.Code compiled = null;
+    // Cache of results when the function is pure and memoization is on.
+    private final Memoizer.Memo memo;
+    // How the profiler shows this function, worked out on first use.
+    private String frame = null;
 
-    LoxFunction(Stmt.Function declaration, Environment closure) {
+    LoxFunction(Stmt.Function declaration, Environment closure, Memoizer.Memo memo) {
         this.declaration = declaration;
         this.closure = closure;
+        this.memo = memo;
+    }
+
+    boolean isDeclaredBy(Stmt.Function declaration) {
+        return this.declaration == declaration;
     }
 
     @Override
@@ -19,20 +28,242 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object... arguments) {
+        if (isInstrumented(interpreter)) {
+            return instrumented(interpreter, arguments);
+        }
+        return invoke(interpreter, arguments);
+    }
+
+    private Object invoke(Interpreter interpreter, Object[] arguments) {
+        var code = compiled(interpreter);
+        if (code != null) {
+            return finish(interpreter, code.run(interpreter, arguments));
+        }
+
         Environment environment = new Environment(closure);
 
-        for (int i = 0; i < declaration.params().size(); i++) {
-            environment.define(declaration.params().get(i).lexeme(), arguments.get(i));
+        for (var argument : arguments) {
+            environment.define(argument);
+        }
+
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (isInstrumented(interpreter)) {
+            return instrumented(interpreter, new Object[0]);
+        }
+
+        var code = compiled(interpreter);
+        if (code != null) {
+            return finish(interpreter, code.run0(interpreter));
+        }
+
+        return execute(interpreter, new Environment(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a0) {
+        if (isInstrumented(interpreter)) {
+            return instrumented(interpreter, new Object[] {a0});
+        }
+
+        var code = compiled(interpreter);
+        if (code != null) {
+            return finish(interpreter, code.run1(interpreter, a0));
+        }
+
+        var environment = new Environment(closure);
+        environment.define(a0);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a0, Object a1) {
+        if (isInstrumented(interpreter)) {
+            return instrumented(interpreter, new Object[] {a0, a1});
+        }
+
+        var code = compiled(interpreter);
+        if (code != null) {
+            return finish(interpreter, code.run2(interpreter, a0, a1));
+        }
+
+        var environment = new Environment(closure);
+        environment.define(a0);
+        environment.define(a1);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a0, Object a1, Object a2) {
+        if (isInstrumented(interpreter)) {
+            return instrumented(interpreter, new Object[] {a0, a1, a2});
+        }
+
+        var code = compiled(interpreter);
+        if (code != null) {
+            return finish(interpreter, code.run3(interpreter, a0, a1, a2));
+        }
+
+        var environment = new Environment(closure);
+        environment.define(a0);
+        environment.define(a1);
+        environment.define(a2);
+        return execute(interpreter, environment);
+    }
+
+    private boolean isInstrumented(Interpreter interpreter) {
+        return memo != null || interpreter.profiler != null || interpreter.meter != null || LoxEvents.calls;
+    }
+
+    /**
+     * A call that is counted against the budget, goes through the memo
+     * cache or the profiler or is recorded as a Flight Recorder event, in
+     * any combination.
+     */
+    private Object instrumented(Interpreter interpreter, Object[] arguments) {
+        var meter = interpreter.meter;
+        if (meter == null) {
+            return recorded(interpreter, arguments);
         }
 
+        meter.enter(declaration.name());
         try {
-            interpreter.walkBlock(declaration.body(), environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            return recorded(interpreter, arguments);
+        } finally {
+            meter.exit();
+        }
+    }
+
+    private Object recorded(Interpreter interpreter, Object[] arguments) {
+        if (!LoxEvents.calls) {
+            return profiled(interpreter, arguments);
         }
 
-        return null;
+        var event = new LoxEvents.Call();
+        int depth = interpreter.callDepth++;
+        event.begin();
+        try {
+            return profiled(interpreter, arguments);
+        } finally {
+            event.end();
+            interpreter.callDepth--;
+            if (event.shouldCommit()) {
+                event.function = frame();
+                event.depth = depth;
+                event.commit();
+            }
+        }
+    }
+
+    private Object profiled(Interpreter interpreter, Object[] arguments) {
+        var profiler = interpreter.profiler;
+        if (profiler == null) {
+            return memo != null ? memoized(interpreter, arguments) : invoke(interpreter, arguments);
+        }
+
+        profiler.enter(frame());
+        try {
+            return memo != null ? memoized(interpreter, arguments) : invoke(interpreter, arguments);
+        } finally {
+            profiler.exit();
+        }
+    }
+
+    private String frame() {
+        if (frame == null) {
+            frame = Profiler.frame(declaration.name());
+        }
+        return frame;
+    }
+
+    private Object memoized(Interpreter interpreter, Object[] arguments) {
+        var key = memo.key(arguments, interpreter.globals);
+        if (key == null) {
+            return invoke(interpreter, arguments);
+        }
+
+        var result = memo.get(key);
+        if (memo.isMissing(result)) {
+            result = invoke(interpreter, arguments);
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    private Jit.Code compiled(Interpreter interpreter) {
+        if (compiled == null && interpreter.jit != null && ++calls == Jit.COMPILE_THRESHOLD) {
+            compiled = interpreter.jit.compile(declaration, closure, interpreter);
+        }
+        return compiled;
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment) {
+        Metrics.called();
+        var completion = interpreter.walkBlock(declaration.body(), environment);
+        return completion.isTailCall() ? trampoline(interpreter, completion, environment) : completion.value;
+    }
+
+    // Compiled code returns a pending call where the body returns one.
+    private static Object finish(Interpreter interpreter, Object result) {
+        Metrics.called();
+        return result instanceof Completion tailCall ? trampoline(interpreter, tailCall, null) : result;
+    }
+
+    /**
+     * Makes the call a function returned, then any call that one returns,
+     * and so on, so a chain of tail calls runs in one JVM frame. Unless a
+     * closure captured it, the scope of one call is emptied and reused for
+     * the next.
+     */
+    private static Object trampoline(Interpreter interpreter, Completion tailCall, Environment environment) {
+        var completion = tailCall;
+        while (true) {
+            var function = completion.callee;
+            Metrics.called();
+            if (interpreter.meter != null) {
+                interpreter.meter.tick(function.declaration.name());
+            }
+            if (interpreter.profiler != null) {
+                interpreter.profiler.replace(function.frame());
+            }
+            // Results are only looked up here: storing them would mean
+            // keeping a key for every call in the chain until it ends.
+            if (function.memo != null) {
+                var key = function.memo.key(completion.arguments, interpreter.globals);
+                if (key != null) {
+                    var result = function.memo.get(key);
+                    if (!function.memo.isMissing(result)) {
+                        return result;
+                    }
+                }
+            }
+
+            var code = function.compiled(interpreter);
+            if (code != null) {
+                var result = code.run(interpreter, completion.arguments);
+                if (!(result instanceof Completion next)) {
+                    return result;
+                }
+                completion = next;
+                continue;
+            }
+
+            if (environment == null || !environment.reset(function.closure)) {
+                environment = new Environment(function.closure);
+            }
+            for (var argument : completion.arguments) {
+                environment.define(argument);
+            }
+
+            completion = interpreter.walkBlock(function.declaration.body(), environment);
+            if (!completion.isTailCall()) {
+                return completion.value;
+            }
+        }
     }
 
     @Override
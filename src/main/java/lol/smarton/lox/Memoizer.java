@@ -0,0 +1,220 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Stmt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches results of pure functions. A top-level function is pure when its
+ * body is (see {@link Purity}) and every global it reads holds a pure
+ * function too. Calls to it with only nil, boolean, number or string
+ * arguments are looked up in a cache of the most recently used results.
+ * <p>
+ * Globals can be reassigned, so each cache checks on every call that the
+ * globals its function read still hold the functions the analysis saw, and
+ * turns itself off for good when one doesn't. With logging on, decisions
+ * and per-function hit counts are reported on stderr.
+ */
+class Memoizer {
+    private static final Object MISSING = new Object();
+
+    private final int capacity;
+    private final boolean log;
+    // Top-level functions by name, and the ones found pure so far with the
+    // globals each of them reads.
+    private final Map<Symbol, Stmt.Function> functions = new HashMap<>();
+    private final Map<Stmt.Function, Symbol[]> pure = new IdentityHashMap<>();
+    private final List<Memo> memos = new ArrayList<>();
+
+    Memoizer(int capacity, boolean log) {
+        this.capacity = capacity;
+        this.log = log;
+    }
+
+    /**
+     * Finds the pure functions among the top-level declarations. Functions
+     * they call have to be declared in the same batch or an earlier one.
+     */
+    void analyze(List<Stmt> statements, Interpreter interpreter) {
+        var candidates = new IdentityHashMap<Stmt.Function, Symbol[]>();
+        for (var statement : statements) {
+            if (!(statement instanceof Stmt.Function function)) {
+                continue;
+            }
+
+            functions.put(function.name().symbol(), function);
+            var purity = Purity.of(function, interpreter);
+            if (purity.impurity() != null) {
+                log(STR."\{name(function)} is not pure: \{purity.impurity()}");
+            } else {
+                candidates.put(function, purity.globals().toArray(Symbol[]::new));
+            }
+        }
+
+        // Recursion is fine, so start from all candidates and drop the ones
+        // that read anything else until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var iterator = candidates.entrySet().iterator(); iterator.hasNext(); ) {
+                var entry = iterator.next();
+                for (var global : entry.getValue()) {
+                    var function = functions.get(global);
+                    if (function == null || !(candidates.containsKey(function) || pure.containsKey(function))) {
+                        log(STR."\{name(entry.getKey())} is not pure: reads '\{global}'");
+                        iterator.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        for (var function : candidates.keySet()) {
+            log(STR."\{name(function)} is pure");
+        }
+        pure.putAll(candidates);
+    }
+
+    /**
+     * A new cache for a function being declared, or null if it isn't pure.
+     */
+    Memo memoFor(Stmt.Function declaration, Environment globals) {
+        var reads = pure.get(declaration);
+        if (reads == null) {
+            return null;
+        }
+
+        var slots = new int[reads.length];
+        var expected = new Stmt.Function[reads.length];
+        for (int i = 0; i < reads.length; i++) {
+            slots[i] = globals.globalSlot(reads[i].name());
+            expected[i] = functions.get(reads[i]);
+        }
+
+        var memo = new Memo(name(declaration), slots, expected);
+        memos.add(memo);
+        return memo;
+    }
+
+    void report() {
+        for (var memo : memos) {
+            if (memo.hits + memo.misses > 0) {
+                log(STR."\{memo.name}: \{memo.hits} hits, \{memo.misses} misses, \{memo.evictions} evictions");
+            }
+        }
+    }
+
+    private static String name(Stmt.Function function) {
+        return STR."\{function.name().lexeme()}/\{function.params().size()}";
+    }
+
+    private void log(String message) {
+        if (log) {
+            System.err.println(STR."[memo] \{message}");
+        }
+    }
+
+    /**
+     * Result cache of one function value. Locked, since tasks spawned from
+     * the script can call the function too.
+     */
+    final class Memo {
+        private final String name;
+        private final int[] slots;
+        private final Stmt.Function[] expected;
+        // Versions of the globals when they were last checked, -1 if never.
+        private final int[] versions;
+        private boolean disabled = false;
+        private final LinkedHashMap<Object, Object> results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() > capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+
+        private Memo(String name, int[] slots, Stmt.Function[] expected) {
+            this.name = name;
+            this.slots = slots;
+            this.expected = expected;
+            this.versions = new int[slots.length];
+            Arrays.fill(versions, -1);
+        }
+
+        /**
+         * The key for a call, or null if it can't be cached: the arguments
+         * aren't all primitive or the function may no longer be pure.
+         */
+        synchronized Object key(Object[] arguments, Environment globals) {
+            if (disabled || !current(globals)) {
+                return null;
+            }
+
+            for (var argument : arguments) {
+                if (!isPrimitive(argument)) {
+                    return null;
+                }
+            }
+            return arguments.length == 1 ? arguments[0] : Arrays.asList(arguments);
+        }
+
+        /**
+         * The cached result for a key, or {@link #MISSING}.
+         */
+        synchronized Object get(Object key) {
+            var result = results.getOrDefault(key, MISSING);
+            if (result == MISSING) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return result;
+        }
+
+        boolean isMissing(Object result) {
+            return result == MISSING;
+        }
+
+        synchronized void put(Object key, Object result) {
+            // Anything else has an identity the caller could tell apart.
+            if (isPrimitive(result)) {
+                results.put(key, result);
+            }
+        }
+
+        private boolean current(Environment globals) {
+            for (int i = 0; i < slots.length; i++) {
+                int version = globals.version(slots[i]);
+                if (version == versions[i]) {
+                    continue;
+                }
+
+                if (!(globals.globalValue(slots[i]) instanceof LoxFunction function) || !function.isDeclaredBy(expected[i])) {
+                    log(STR."\{name} is no longer pure: a global it reads was reassigned");
+                    disabled = true;
+                    results.clear();
+                    return false;
+                }
+                versions[i] = version;
+            }
+            return true;
+        }
+
+        private static boolean isPrimitive(Object value) {
+            return value == null || value instanceof Boolean || value instanceof Double || value instanceof String;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package lol.smarton.lox;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters behind {@link MetricsMXBean}. They are {@link LongAdder}s, so
+ * scripts running on several threads don't fight over one cache line.
+ * <p>
+ * Counting is switched on with {@code -Dlox.metrics=true}. The switch is a
+ * constant, so when it's off the JIT drops the checks in front of every
+ * counter and the hot paths are the same as without metrics.
+ * <p>
+ * Environments and calls are also counted while Flight Recorder records
+ * {@link LoxEvents.Counters}. Recordings come and go, so that check goes
+ * through a call site whose target is a constant. The JIT compiles the
+ * constant in as it would the switch, and recompiles the code that
+ * depends on it when a recording changes it.
+ */
+public final class Metrics implements MetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("lox.metrics");
+
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder calls = new LongAdder();
+    private static final LongAdder lookups = new LongAdder();
+    private static final LongAdder lookupDepth = new LongAdder();
+    private static final LongAdder controlFlow = new LongAdder();
+    private static final LongAdder runtimeErrors = new LongAdder();
+    private static final LongAdder printed = new LongAdder();
+
+    // Whether environments and calls are counted.
+    private static final MutableCallSite counting = new MutableCallSite(MethodHandles.constant(boolean.class, ENABLED));
+    private static final MethodHandle isCounting = counting.dynamicInvoker();
+
+    private static boolean registered = false;
+
+    private Metrics() {}
+
+    /**
+     * Registers the MBean with the platform server, once.
+     */
+    static synchronized void register() {
+        if (!ENABLED || registered) {
+            return;
+        }
+        registered = true;
+
+        try {
+            var server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new Metrics(), new ObjectName("lol.smarton.lox:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println(STR."[metrics] couldn't register MBean: \{e.getMessage()}");
+        }
+    }
+
+    /**
+     * Counts environments and calls for Flight Recorder too, or only when
+     * metrics are on.
+     */
+    static synchronized void countForEvents(boolean recording) {
+        counting.setTarget(MethodHandles.constant(boolean.class, ENABLED || recording));
+        MutableCallSite.syncAll(new MutableCallSite[] {counting});
+    }
+
+    private static boolean isCounting() {
+        try {
+            return (boolean) isCounting.invokeExact();
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static void environmentCreated() {
+        if (isCounting()) {
+            environments.increment();
+        }
+    }
+
+    static void called() {
+        if (isCounting()) {
+            calls.increment();
+        }
+    }
+
+    static void lookedUp(int depth) {
+        if (ENABLED) {
+            lookups.increment();
+            lookupDepth.add(depth);
+        }
+    }
+
+    static void runtimeError() {
+        if (ENABLED) {
+            runtimeErrors.increment();
+        }
+    }
+
+    public static void controlFlowThrown() {
+        if (ENABLED) {
+            controlFlow.increment();
+        }
+    }
+
+    static void printed(long characters) {
+        if (ENABLED) {
+            printed.add(characters);
+        }
+    }
+
+    @Override
+    public long getEnvironmentsCreated() {
+        return environments.sum();
+    }
+
+    @Override
+    public long getVariableLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public double getAverageLookupDepth() {
+        long count = lookups.sum();
+        return count == 0 ? 0 : (double) lookupDepth.sum() / count;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getControlFlowExceptions() {
+        return controlFlow.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getCharactersPrinted() {
+        return printed.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMillis() {
+        var millis = new LinkedHashMap<String, Long>();
+        for (var phase : Phase.values()) {
+            millis.put(phase.label(), TimeUnit.NANOSECONDS.toMillis(phase.nanos.sum()));
+        }
+        return millis;
+    }
+
+    @Override
+    public void reset() {
+        for (var counter : new LongAdder[] {environments, calls, lookups, lookupDepth, controlFlow, runtimeErrors, printed}) {
+            counter.reset();
+        }
+        for (var phase : Phase.values()) {
+            phase.nanos.reset();
+        }
+    }
+}
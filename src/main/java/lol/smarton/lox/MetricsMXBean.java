@@ -0,0 +1,41 @@
+package lol.smarton.lox;
+
+import java.util.Map;
+
+/**
+ * Live counters of the interpreter, registered as
+ * {@code lol.smarton.lox:type=Metrics} when {@link Metrics#ENABLED} is set.
+ */
+public interface MetricsMXBean {
+    long getEnvironmentsCreated();
+
+    long getVariableLookups();
+
+    /**
+     * Scopes walked up per local variable read or write.
+     */
+    double getAverageLookupDepth();
+
+    long getCalls();
+
+    /**
+     * Break, continue and return in the node engine; the tree walker and the
+     * VM don't use exceptions for control flow.
+     */
+    long getControlFlowExceptions();
+
+    long getRuntimeErrors();
+
+    /**
+     * Characters written by print statements, newlines included. Buffered
+     * output counts UTF-8 bytes instead.
+     */
+    long getCharactersPrinted();
+
+    /**
+     * Milliseconds spent in each phase of running scripts.
+     */
+    Map<String, Long> getPhaseMillis();
+
+    void reset();
+}
@@ -0,0 +1,16 @@
+package lol.smarton.lox;
+
+/**
+ * A runtime error in a native function. Natives don't know where they were
+ * called from, so the call site turns this into a {@link RuntimeError} on
+ * its own line.
+ */
+final class NativeError extends RuntimeException {
+    NativeError(String message) {
+        super(message, null, false, false);
+    }
+
+    RuntimeError at(Token paren) {
+        return new RuntimeError(paren, getMessage());
+    }
+}
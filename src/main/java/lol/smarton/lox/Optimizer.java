@@ -0,0 +1,419 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the syntax tree before it is resolved: folds operators applied to
+ * literals, drops branches whose condition is a literal and flattens comma
+ * expressions. Anything that would fail at runtime, like a division by zero
+ * or mismatched operand types, is left alone so the error still happens
+ * where and when it used to.
+ */
+public class Optimizer implements AstWalker<Expr, Stmt> {
+    private static final Stmt EMPTY = new Stmt.Block(List.of());
+
+    private int eliminated = 0;
+
+    public List<Stmt> optimize(List<Stmt> statements) {
+        var before = NodeCounter.count(statements);
+        var result = optimizeAll(statements);
+        eliminated += before - NodeCounter.count(result);
+        return result;
+    }
+
+    public Expr optimize(Expr expr) {
+        var before = NodeCounter.count(expr);
+        var result = walk(expr);
+        eliminated += before - NodeCounter.count(result);
+        return result;
+    }
+
+    /**
+     * Number of syntax tree nodes removed so far.
+     */
+    public int eliminated() {
+        return eliminated;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        var result = new ArrayList<Stmt>(statements.size());
+        for (var statement : statements) {
+            var optimized = walk(statement);
+            if (optimized != null) {
+                result.add(optimized);
+            }
+        }
+        return result;
+    }
+
+    private Stmt optimizeBody(Stmt body) {
+        var optimized = walk(body);
+        return optimized == null ? EMPTY : optimized;
+    }
+
+    @Override
+    public Expr walk(Expr.Assign assign) {
+        return new Expr.Assign(assign.name(), walk(assign.value()));
+    }
+
+    @Override
+    public Expr walk(Expr.Binary binary) {
+        var left = walk(binary.left());
+        var right = walk(binary.right());
+
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+            var folded = fold(binary.operator().type(), l.value(), r.value());
+            if (folded != null) {
+                return folded;
+            }
+        }
+
+        return new Expr.Binary(left, binary.operator(), right);
+    }
+
+    private Expr.Literal fold(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL) {
+            return new Expr.Literal(Interpreter.isEqual(left, right));
+        }
+        if (operator == TokenType.BANG_EQUAL) {
+            return new Expr.Literal(!Interpreter.isEqual(left, right));
+        }
+        if (operator == TokenType.PLUS && left instanceof String l && right instanceof String r) {
+            return new Expr.Literal(l + r);
+        }
+
+        if (!(left instanceof Double l) || !(right instanceof Double r)) {
+            return null;
+        }
+
+        return switch (operator) {
+            case PLUS -> new Expr.Literal(l + r);
+            case MINUS -> new Expr.Literal(l - r);
+            case STAR -> new Expr.Literal(l * r);
+            case SLASH -> r == 0 ? null : new Expr.Literal(l / r);
+            case GREATER -> new Expr.Literal(l > r);
+            case GREATER_EQUAL -> new Expr.Literal(l >= r);
+            case LESS -> new Expr.Literal(l < r);
+            case LESS_EQUAL -> new Expr.Literal(l <= r);
+            default -> null;
+        };
+    }
+
+    @Override
+    public Expr walk(Expr.Call call) {
+        var arguments = new ArrayList<Expr>(call.arguments().size());
+        for (var argument : call.arguments()) {
+            arguments.add(walk(argument));
+        }
+        return new Expr.Call(walk(call.callee()), call.paren(), arguments);
+    }
+
+    @Override
+    public Expr walk(Expr.Unary unary) {
+        var right = walk(unary.right());
+
+        if (right instanceof Expr.Literal literal) {
+            switch (unary.operator().type()) {
+                case BANG -> {
+                    return new Expr.Literal(!Interpreter.isTruthy(literal.value()));
+                }
+                case MINUS -> {
+                    if (literal.value() instanceof Double value) {
+                        return new Expr.Literal(-value);
+                    }
+                }
+                default -> {}
+            }
+        }
+
+        return new Expr.Unary(unary.operator(), right);
+    }
+
+    @Override
+    public Expr walk(Expr.Literal literal) {
+        return literal;
+    }
+
+    @Override
+    public Expr walk(Expr.Logical logical) {
+        var left = walk(logical.left());
+        var right = walk(logical.right());
+
+        if (left instanceof Expr.Literal literal) {
+            var truthy = Interpreter.isTruthy(literal.value());
+            if (logical.operator().type() == TokenType.OR) {
+                return truthy ? left : right;
+            }
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, logical.operator(), right);
+    }
+
+    @Override
+    public Expr walk(Expr.Grouping grouping) {
+        return walk(grouping.expression());
+    }
+
+    @Override
+    public Expr walk(Expr.ExpressionList expressionList) {
+        var expressions = new ArrayList<Expr>();
+        for (var expr : expressionList.expressions()) {
+            var optimized = walk(expr);
+            if (optimized instanceof Expr.ExpressionList nested) {
+                expressions.addAll(nested.expressions());
+            } else {
+                expressions.add(optimized);
+            }
+        }
+
+        if (expressions.size() == 1) {
+            return expressions.getFirst();
+        }
+        return new Expr.ExpressionList(expressions);
+    }
+
+    @Override
+    public Expr walk(Expr.Ternary ternary) {
+        var cond = walk(ternary.cond());
+        var thenBranch = walk(ternary.thenBranch());
+        var elseBranch = walk(ternary.elseBranch());
+
+        if (cond instanceof Expr.Literal literal) {
+            return Interpreter.isTruthy(literal.value()) ? thenBranch : elseBranch;
+        }
+
+        return new Expr.Ternary(cond, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr walk(Expr.Variable variable) {
+        return variable;
+    }
+
+    @Override
+    public Expr walk(Expr.Function function) {
+        return new Expr.Function(function.params(), optimizeAll(function.body()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.Block stmt) {
+        return new Stmt.Block(optimizeAll(stmt.statements()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.Expression stmt) {
+        return new Stmt.Expression(walk(stmt.expression()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name(), stmt.params(), optimizeAll(stmt.body()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.If stmt) {
+        var condition = walk(stmt.condition());
+
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value())) {
+                return walk(stmt.thenBranch());
+            }
+            return stmt.elseBranch() == null ? null : walk(stmt.elseBranch());
+        }
+
+        var elseBranch = stmt.elseBranch() == null ? null : walk(stmt.elseBranch());
+        return new Stmt.If(condition, optimizeBody(stmt.thenBranch()), elseBranch);
+    }
+
+    @Override
+    public Stmt walk(Stmt.Print stmt) {
+        return new Stmt.Print(walk(stmt.expression()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword(), stmt.value() == null ? null : walk(stmt.value()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.Var stmt) {
+        return new Stmt.Var(stmt.name(), stmt.initializer() == null ? null : walk(stmt.initializer()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.While stmt) {
+        var condition = walk(stmt.condition());
+
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value())) {
+            return null;
+        }
+
+        return new Stmt.While(stmt.keyword(), condition, optimizeBody(stmt.body()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.For stmt) {
+        var initializer = stmt.initializer() == null ? null : walk(stmt.initializer());
+        var condition = stmt.condition() == null ? null : walk(stmt.condition());
+
+        if (condition instanceof Expr.Literal literal) {
+            if (!Interpreter.isTruthy(literal.value())) {
+                // Only the initializer ever runs. A variable it declares
+                // stays in a scope of its own.
+                return initializer instanceof Stmt.Var ? new Stmt.Block(List.of(initializer)) : initializer;
+            }
+            // An always-true condition doesn't need to be evaluated at all.
+            condition = null;
+        }
+
+        var increment = stmt.increment() == null ? null : walk(stmt.increment());
+        return new Stmt.For(stmt.keyword(), initializer, condition, increment, optimizeBody(stmt.body()));
+    }
+
+    @Override
+    public Stmt walk(Stmt.LoopControl stmt) {
+        return stmt;
+    }
+
+    private static class NodeCounter implements AstWalker<Integer, Integer> {
+        private static final NodeCounter INSTANCE = new NodeCounter();
+
+        static int count(List<Stmt> statements) {
+            int count = 0;
+            for (var statement : statements) {
+                count += INSTANCE.walk(statement);
+            }
+            return count;
+        }
+
+        static int count(Expr expr) {
+            return INSTANCE.walk(expr);
+        }
+
+        private int count(Stmt stmt) {
+            return stmt == null ? 0 : walk(stmt);
+        }
+
+        private int countExpr(Expr expr) {
+            return expr == null ? 0 : walk(expr);
+        }
+
+        @Override
+        public Integer walk(Expr.Assign assign) {
+            return 1 + walk(assign.value());
+        }
+
+        @Override
+        public Integer walk(Expr.Binary binary) {
+            return 1 + walk(binary.left()) + walk(binary.right());
+        }
+
+        @Override
+        public Integer walk(Expr.Call call) {
+            int count = 1 + walk(call.callee());
+            for (var argument : call.arguments()) {
+                count += walk(argument);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer walk(Expr.Unary unary) {
+            return 1 + walk(unary.right());
+        }
+
+        @Override
+        public Integer walk(Expr.Literal literal) {
+            return 1;
+        }
+
+        @Override
+        public Integer walk(Expr.Logical logical) {
+            return 1 + walk(logical.left()) + walk(logical.right());
+        }
+
+        @Override
+        public Integer walk(Expr.Grouping grouping) {
+            return 1 + walk(grouping.expression());
+        }
+
+        @Override
+        public Integer walk(Expr.ExpressionList expressionList) {
+            int count = 1;
+            for (var expr : expressionList.expressions()) {
+                count += walk(expr);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer walk(Expr.Ternary ternary) {
+            return 1 + walk(ternary.cond()) + walk(ternary.thenBranch()) + walk(ternary.elseBranch());
+        }
+
+        @Override
+        public Integer walk(Expr.Variable variable) {
+            return 1;
+        }
+
+        @Override
+        public Integer walk(Expr.Function function) {
+            return 1 + count(function.body());
+        }
+
+        @Override
+        public Integer walk(Stmt.Block stmt) {
+            return 1 + count(stmt.statements());
+        }
+
+        @Override
+        public Integer walk(Stmt.Expression stmt) {
+            return 1 + walk(stmt.expression());
+        }
+
+        @Override
+        public Integer walk(Stmt.Function stmt) {
+            return 1 + count(stmt.body());
+        }
+
+        @Override
+        public Integer walk(Stmt.If stmt) {
+            return 1 + walk(stmt.condition()) + walk(stmt.thenBranch()) + count(stmt.elseBranch());
+        }
+
+        @Override
+        public Integer walk(Stmt.Print stmt) {
+            return 1 + walk(stmt.expression());
+        }
+
+        @Override
+        public Integer walk(Stmt.Return stmt) {
+            return 1 + countExpr(stmt.value());
+        }
+
+        @Override
+        public Integer walk(Stmt.Var stmt) {
+            return 1 + countExpr(stmt.initializer());
+        }
+
+        @Override
+        public Integer walk(Stmt.While stmt) {
+            return 1 + walk(stmt.condition()) + walk(stmt.body());
+        }
+
+        @Override
+        public Integer walk(Stmt.For stmt) {
+            return 1 + count(stmt.initializer()) + countExpr(stmt.condition())
+                + countExpr(stmt.increment()) + walk(stmt.body());
+        }
+
+        @Override
+        public Integer walk(Stmt.LoopControl stmt) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package lol.smarton.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where print statements write. Every engine has one; the default writes
+ * each value straight to {@link System#out}.
+ */
+public interface Output {
+    /**
+     * Writes a value the way a print statement shows it, then a newline.
+     */
+    void print(Object value);
+
+    /**
+     * Writes out anything still buffered.
+     */
+    void flush();
+
+    static Output of(PrintStream stream) {
+        return new Output() {
+            @Override
+            public void print(Object value) {
+                var text = Interpreter.stringify(value);
+                Metrics.printed(text.length() + 1);
+                stream.println(text);
+            }
+
+            @Override
+            public void flush() {
+                stream.flush();
+            }
+        };
+    }
+}
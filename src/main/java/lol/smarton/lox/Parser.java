@@ -11,12 +11,86 @@ import java.util.List;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // How tightly infix operators bind, loosest first.
+    private enum Precedence {
+        NONE, ASSIGNMENT, TERNARY, OR, AND, EQUALITY, COMPARISON, TERM, FACTOR, UNARY, CALL;
+
+        private static final Precedence[] values = values();
+
+        Precedence next() {
+            return values[ordinal() + 1];
+        }
+    }
+
+    @FunctionalInterface
+    private interface PrefixRule {
+        Expr parse(Parser parser);
+    }
+
+    @FunctionalInterface
+    private interface InfixRule {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    // Expression rules, indexed by token type ordinal. A token that can't
+    // start an expression has no prefix rule, and one that can't continue
+    // it has no infix rule and binds with NONE.
+    private static final PrefixRule[] prefixRules = new PrefixRule[TokenType.values().length];
+    private static final InfixRule[] infixRules = new InfixRule[TokenType.values().length];
+    private static final Precedence[] infixPrecedences = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(infixPrecedences, Precedence.NONE);
+
+        prefix(FUN, Parser::function);
+        prefix(FALSE, _ -> new Expr.Literal(false));
+        prefix(TRUE, _ -> new Expr.Literal(true));
+        prefix(NIL, _ -> new Expr.Literal(null));
+        prefix(NUMBER, parser -> new Expr.Literal(parser.previous().literal()));
+        prefix(STRING, parser -> new Expr.Literal(parser.previous().literal()));
+        prefix(IDENTIFIER, parser -> new Expr.Variable(parser.previous()));
+        prefix(LEFT_PAREN, Parser::grouping);
+        prefix(BANG, Parser::unary);
+        prefix(MINUS, Parser::unary);
+
+        infix(EQUAL, Precedence.ASSIGNMENT, Parser::assignment);
+        infix(QUESTION_MARK, Precedence.TERNARY, Parser::ternary);
+        infix(OR, Precedence.OR, Parser::logical);
+        infix(AND, Precedence.AND, Parser::logical);
+        infix(BANG_EQUAL, Precedence.EQUALITY, Parser::binary);
+        infix(EQUAL_EQUAL, Precedence.EQUALITY, Parser::binary);
+        infix(GREATER, Precedence.COMPARISON, Parser::binary);
+        infix(GREATER_EQUAL, Precedence.COMPARISON, Parser::binary);
+        infix(LESS, Precedence.COMPARISON, Parser::binary);
+        infix(LESS_EQUAL, Precedence.COMPARISON, Parser::binary);
+        infix(MINUS, Precedence.TERM, Parser::binary);
+        infix(PLUS, Precedence.TERM, Parser::binary);
+        infix(SLASH, Precedence.FACTOR, Parser::binary);
+        infix(STAR, Precedence.FACTOR, Parser::binary);
+        infix(LEFT_PAREN, Precedence.CALL, Parser::finishCall);
+    }
+
+    private static void prefix(TokenType type, PrefixRule rule) {
+        prefixRules[type.ordinal()] = rule;
+    }
+
+    private static void infix(TokenType type, Precedence precedence, InfixRule rule) {
+        infixRules[type.ordinal()] = rule;
+        infixPrecedences[type.ordinal()] = precedence;
+    }
+
+    // Only one token of lookahead is ever needed, plus the one just consumed.
+    private final TokenStream tokens;
+    private final Diagnostics diagnostics;
     private int loopDepth = 0;
 
-    public Parser(List<Token> tokens) {
+    public Parser(List<Token> tokens, Diagnostics diagnostics) {
+        this(TokenStream.of(tokens), diagnostics);
+    }
+
+    public Parser(TokenStream tokens, Diagnostics diagnostics) {
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
     }
 
     public List<Stmt> parse() {
@@ -28,6 +102,21 @@ public class Parser {
         return statements;
     }
 
+    /**
+     * True once every declaration has been parsed.
+     */
+    public boolean atEnd() {
+        return isAtEnd();
+    }
+
+    /**
+     * Parses one top-level declaration, for callers that run a script while
+     * it is still being read. Returns null after a syntax error.
+     */
+    public Stmt parseDeclaration() {
+        return declaration();
+    }
+
     public Expr parseExpr() {
         return commaExpression();
     }
@@ -50,7 +139,8 @@ public class Parser {
     }
 
     private Stmt.Function function(String kind) {
-        Token name = consume(IDENTIFIER, STR."Expect \{kind} name.");
+        consume(IDENTIFIER, STR."Expect \{kind} name.");
+        Token name = previous();
         consume(LEFT_PAREN, STR."Expect '(' after \{kind} name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
@@ -59,7 +149,8 @@ public class Parser {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
 
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
 
@@ -71,7 +162,8 @@ public class Parser {
     }
     
     private Stmt varDeclaration() {
-        Token name = consume(IDENTIFIER, "Expected variable name.");
+        consume(IDENTIFIER, "Expected variable name.");
+        Token name = previous();
         
         Expr initializer = null;
         if (match(EQUAL)) {
@@ -109,6 +201,7 @@ public class Parser {
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -140,7 +233,7 @@ public class Parser {
             condition = new Expr.Literal(true);
         }
 
-        return new Stmt.For(initializer, condition, increment, body);
+        return new Stmt.For(keyword, initializer, condition, increment, body);
     }
 
     private Stmt ifStatement() {
@@ -175,6 +268,7 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
@@ -183,7 +277,7 @@ public class Parser {
         Stmt body = statement();
         loopDepth--;
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt loopControlStatement() {
@@ -232,133 +326,69 @@ public class Parser {
     }
 
     private Expr expression() {
-        return assignment();
-    }
-    
-    private Expr assignment() {
-        Expr expr = ternary();
-        
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-            
-            if (expr instanceof Expr.Variable varExpr) {
-                Token name = varExpr.name();
-                return new Expr.Assign(name, value);
-            }
-            
-            error(equals, "Invalid assignment target.");
-        }
-        
-        return expr;
-    }
-
-    private Expr ternary() {
-        var expr = or();
-
-        if (match(QUESTION_MARK)) {
-            var thenBranch = ternary();
-            consume(COLON, "Expect : after first ternary branch.");
-            var elseBranch = ternary();
-            expr = new Expr.Ternary(expr, thenBranch, elseBranch);
-        }
-
-        return expr;
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
-    private Expr or() {
-        var expr = and();
-
-        while (match(OR)) {
-            var operator = previous();
-            var right = and();
-            expr = new Expr.Logical(expr, operator, right);
+    /**
+     * Parses an expression whose operators all bind at least as tightly as
+     * {@code precedence}. The rule for the first token builds the left
+     * operand; after that, every infix operator that binds tightly enough
+     * takes what has been parsed so far as its left operand.
+     */
+    private Expr parsePrecedence(Precedence precedence) {
+        var prefix = prefixRules[tokens.type().ordinal()];
+        if (prefix == null) {
+            throw error(peek(), "Expected expression.");
         }
+        advance();
+        var expr = prefix.parse(this);
 
-        return expr;
-    }
-
-    private Expr and() {
-        var expr = equality();
-
-        while (match(AND)) {
-            var operator = previous();
-            var right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+        while (precedence.ordinal() <= infixPrecedences[tokens.type().ordinal()].ordinal()) {
+            var infix = infixRules[tokens.type().ordinal()];
+            advance();
+            expr = infix.parse(this, expr);
         }
 
         return expr;
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
+    private Expr assignment(Expr target) {
+        Token equals = previous();
+        // Right-associative: a = b = c assigns c to b first.
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            var operator = previous();
-            var right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+        if (target instanceof Expr.Variable varExpr) {
+            Token name = varExpr.name();
+            return new Expr.Assign(name, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr comparison() {
-        var expr = term();
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            var operator = previous();
-            var right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr ternary(Expr condition) {
+        var thenBranch = parsePrecedence(Precedence.TERNARY);
+        consume(COLON, "Expect : after first ternary branch.");
+        var elseBranch = parsePrecedence(Precedence.TERNARY);
+        return new Expr.Ternary(condition, thenBranch, elseBranch);
     }
 
-    private Expr term() {
-        var expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            var operator = previous();
-            var right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr logical(Expr left) {
+        var operator = previous();
+        var right = parsePrecedence(infixPrecedences[operator.type().ordinal()].next());
+        return new Expr.Logical(left, operator, right);
     }
 
-    private Expr factor() {
-        var expr = unary();
-
-        while (match(SLASH, STAR)) {
-            var operator = previous();
-            var right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr binary(Expr left) {
+        var operator = previous();
+        var right = parsePrecedence(infixPrecedences[operator.type().ordinal()].next());
+        return new Expr.Binary(left, operator, right);
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
-            var operator = previous();
-            var right = unary();
-            return new Expr.Unary(operator, right);
-        }
-
-        return call();
-    }
-
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else {
-                break;
-            }
-        }
-
-        return expr;
+        var operator = previous();
+        var right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
     }
 
     private Expr finishCall(Expr callee) {
@@ -372,34 +402,16 @@ public class Parser {
             } while (match(COMMA));
         }
 
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr primary() {
-        if (match(FUN)) {
-            return function();
-        }
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal());
-        }
-        
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
-
-        if (match(LEFT_PAREN)) {
-            var expr = commaExpression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-
-        throw error(peek(), "Expected expression.");
+    private Expr grouping() {
+        var expr = commaExpression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
     }
 
     private Expr.Function function() {
@@ -411,7 +423,8 @@ public class Parser {
                     error(peek(), "Can't have more than 255 parameters.");
                 }
 
-                parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+                consume(IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(COMMA));
         }
 
@@ -421,49 +434,52 @@ public class Parser {
         return new Expr.Function(parameters, body);
     }
 
-    private boolean match(TokenType... types) {
-        for (var type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if (check(type)) {
+            advance();
+            return true;
         }
 
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+    /**
+     * Moves past a token of the given type; use {@link #previous()} to get it.
+     */
+    private void consume(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type() == type;
+        return tokens.type() == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) {
-            current++;
+            tokens.advance();
         }
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type() == EOF;
+        return tokens.type() == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.current();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        diagnostics.error(token, message);
         return new ParseError();
     }
 
@@ -475,7 +491,7 @@ public class Parser {
                 return;
             }
 
-            switch (peek().type()) {
+            switch (tokens.type()) {
                 case CLASS:
                 case FUN:
                 case VAR:
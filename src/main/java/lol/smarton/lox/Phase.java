@@ -0,0 +1,51 @@
+package lol.smarton.lox;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A step in running a script. Each one is timed for the metrics MBean and
+ * recorded as a {@link LoxEvents.Phase} for Flight Recorder.
+ */
+enum Phase {
+    SCAN,
+    PARSE,
+    OPTIMIZE,
+    RESOLVE,
+    COMPILE,
+    INTERPRET,
+    // Parsing, resolving and running interleaved with --stream.
+    STREAM;
+
+    final LongAdder nanos = new LongAdder();
+    private final String label = name().toLowerCase(Locale.ROOT);
+
+    String label() {
+        return label;
+    }
+
+    Timer start() {
+        return new Timer(this);
+    }
+
+    static final class Timer {
+        private final Phase phase;
+        private final LoxEvents.Phase event;
+        private final long start;
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+            this.event = LoxEvents.phases ? LoxEvents.Phase.start(phase.label) : null;
+            this.start = Metrics.ENABLED ? System.nanoTime() : 0;
+        }
+
+        void end() {
+            if (event != null) {
+                event.commit();
+            }
+            if (Metrics.ENABLED) {
+                phase.nanos.add(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package lol.smarton.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the Lox call stack. The interpreter pushes a frame for every call
+ * of a {@link LoxFunction} and pops it on the way out; a background thread
+ * copies the stack every {@code interval} microseconds and counts how often
+ * each one was seen.
+ * <p>
+ * The stack is only written by the thread running the script. The sampler
+ * reads it without locking, so a sample taken in the middle of a call or a
+ * return can be off by a frame; over many samples that doesn't matter.
+ */
+final class Profiler {
+    private static final String ROOT = "<script>";
+
+    private final long interval;
+    private volatile String[] frames = new String[64];
+    private volatile int depth = 0;
+    // Only touched by the sampling thread until it has stopped.
+    private final Map<String, Long> stacks = new HashMap<>();
+    private long samples = 0;
+    private ScheduledExecutorService sampler;
+
+    Profiler(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * The frame shown for a function: its name and the line it was declared
+     * on. Lambdas have no line.
+     */
+    static String frame(Token name) {
+        return name.line() < 0 ? name.lexeme() : STR."\{name.lexeme()}:\{name.line()}";
+    }
+
+    void enter(String frame) {
+        var frames = this.frames;
+        int depth = this.depth;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+            this.frames = frames;
+        }
+        frames[depth] = frame;
+        this.depth = depth + 1;
+    }
+
+    /**
+     * Swaps the frame on top for the function a tail call runs in its place.
+     */
+    void replace(String frame) {
+        int depth = this.depth;
+        if (depth > 0) {
+            frames[depth - 1] = frame;
+        }
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void start() {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "lox-profiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.MICROSECONDS);
+    }
+
+    void stop() {
+        sampler.shutdown();
+        try {
+            sampler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample() {
+        int depth = this.depth;
+        var frames = this.frames;
+        var stack = new StringBuilder(ROOT);
+        for (int i = 0; i < Math.min(depth, frames.length); i++) {
+            stack.append(';').append(frames[i]);
+        }
+        stacks.merge(stack.toString(), 1L, Long::sum);
+        samples++;
+    }
+
+    /**
+     * Writes the samples in the collapsed format flame graph tools read: one
+     * line per distinct stack, frames separated by semicolons, then the
+     * number of samples.
+     */
+    void writeCollapsed(Path path) throws IOException {
+        try (var out = new PrintStream(Files.newOutputStream(path))) {
+            stacks.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> out.println(STR."\{entry.getKey()} \{entry.getValue()}"));
+        }
+    }
+
+    /**
+     * Prints the {@code limit} functions with the most self time: samples
+     * where they were running themselves, against total time, which counts
+     * everything they called too.
+     */
+    void report(PrintStream out, int limit) {
+        var self = new HashMap<String, Long>();
+        var total = new HashMap<String, Long>();
+        for (var entry : stacks.entrySet()) {
+            var stack = entry.getKey().split(";");
+            long count = entry.getValue();
+            self.merge(stack[stack.length - 1], count, Long::sum);
+            // A recursive function counts once per sample.
+            for (var frame : new HashSet<>(Arrays.asList(stack))) {
+                total.merge(frame, count, Long::sum);
+            }
+        }
+
+        out.println(STR."[profile] \{samples} samples every \{interval}us");
+        out.println(String.format("%10s %7s %10s %7s  %s", "self ms", "self %", "total ms", "total %", "function"));
+        self.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .limit(limit)
+            .forEach(entry -> {
+                long selfSamples = entry.getValue();
+                long totalSamples = total.get(entry.getKey());
+                out.println(String.format(
+                    "%10.1f %6.1f%% %10.1f %6.1f%%  %s",
+                    millis(selfSamples), percent(selfSamples),
+                    millis(totalSamples), percent(totalSamples),
+                    entry.getKey()
+                ));
+            });
+    }
+
+    private double millis(long count) {
+        return count * interval / 1000.0;
+    }
+
+    private double percent(long count) {
+        return samples == 0 ? 0 : 100.0 * count / samples;
+    }
+}
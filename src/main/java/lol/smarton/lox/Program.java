@@ -0,0 +1,22 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Stmt;
+
+import java.util.List;
+
+/**
+ * A parsed, and possibly optimized, script. Syntax trees are never changed
+ * once built, so one program can be run by any number of
+ * {@link LoxContext}s at once; each resolves it against its own globals.
+ */
+public final class Program {
+    private final List<Stmt> statements;
+
+    Program(List<Stmt> statements) {
+        this.statements = List.copyOf(statements);
+    }
+
+    List<Stmt> statements() {
+        return statements;
+    }
+}
@@ -0,0 +1,241 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.*;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks whether a function body is pure apart from the globals it reads:
+ * it doesn't print, doesn't assign anything outside its own scopes, doesn't
+ * create closures and only calls functions it names through a global.
+ * Whether those globals hold pure functions is up to the caller, which has
+ * to look at all functions together. Runs after the resolver.
+ */
+class Purity implements AstWalker<Void, Void> {
+    private final Interpreter interpreter;
+    // Scopes opened inside the body; variables resolved no further up than
+    // this are the function's own.
+    private int depth = 0;
+    private String impurity = null;
+    private final Set<Symbol> globals = new LinkedHashSet<>();
+
+    private Purity(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Analyzes a function declared at the top level.
+     */
+    static Purity of(Stmt.Function function, Interpreter interpreter) {
+        var purity = new Purity(interpreter);
+        purity.walk(function.body());
+        return purity;
+    }
+
+    /**
+     * Why the function isn't pure, or null if it is as long as every global
+     * it reads holds a pure function.
+     */
+    String impurity() {
+        return impurity;
+    }
+
+    Set<Symbol> globals() {
+        return globals;
+    }
+
+    private void impure(String reason) {
+        if (impurity == null) {
+            impurity = reason;
+        }
+    }
+
+    private boolean isOwn(Expr expr) {
+        var slot = interpreter.slotOf(expr);
+        return slot != null && !slot.isGlobal() && slot.depth() <= depth;
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (var statement : statements) {
+            walk(statement);
+        }
+    }
+
+    @Override
+    public Void walk(Expr.Assign assign) {
+        walk(assign.value());
+        if (!isOwn(assign)) {
+            impure(STR."assigns to '\{assign.name().lexeme()}'");
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Binary binary) {
+        walk(binary.left());
+        walk(binary.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Call call) {
+        if (!(call.callee() instanceof Expr.Variable callee) || isOwn(callee)) {
+            impure("calls a function that isn't a global");
+        }
+        walk(call.callee());
+        for (var argument : call.arguments()) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Unary unary) {
+        walk(unary.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Literal literal) {
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Logical logical) {
+        walk(logical.left());
+        walk(logical.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Grouping grouping) {
+        walk(grouping.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.ExpressionList expressionList) {
+        for (var expr : expressionList.expressions()) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Ternary ternary) {
+        walk(ternary.cond());
+        walk(ternary.thenBranch());
+        walk(ternary.elseBranch());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Variable variable) {
+        if (isOwn(variable)) {
+            return null;
+        }
+
+        var slot = interpreter.slotOf(variable);
+        if (slot != null && slot.isGlobal()) {
+            globals.add(variable.name().symbol());
+        } else {
+            impure(STR."reads '\{variable.name().lexeme()}' from an enclosing function");
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Function function) {
+        impure("creates a closure");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Block stmt) {
+        depth++;
+        walk(stmt.statements());
+        depth--;
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Expression stmt) {
+        walk(stmt.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Function stmt) {
+        impure("creates a closure");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.If stmt) {
+        walk(stmt.condition());
+        walk(stmt.thenBranch());
+        if (stmt.elseBranch() != null) {
+            walk(stmt.elseBranch());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Print stmt) {
+        impure("prints");
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Return stmt) {
+        if (stmt.value() != null) {
+            walk(stmt.value());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Var stmt) {
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.While stmt) {
+        walk(stmt.condition());
+        walk(stmt.body());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.For stmt) {
+        // A loop variable has a scope of its own.
+        boolean scoped = stmt.initializer() instanceof Stmt.Var;
+        if (scoped) {
+            depth++;
+        }
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+        if (stmt.condition() != null) {
+            walk(stmt.condition());
+        }
+        if (stmt.increment() != null) {
+            walk(stmt.increment());
+        }
+        walk(stmt.body());
+        if (scoped) {
+            depth--;
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.LoopControl stmt) {
+        return null;
+    }
+}
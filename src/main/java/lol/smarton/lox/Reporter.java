@@ -0,0 +1,89 @@
+package lol.smarton.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Prints errors the way the command line always has: syntax and resolution
+ * errors to one stream, runtime errors to another, and remembers whether
+ * there were any of each.
+ */
+public class Reporter implements Diagnostics {
+    private final PrintStream errors;
+    private final PrintStream runtimeErrors;
+    // Flushed before an error is printed, so the error comes after whatever
+    // the script printed first.
+    private final Output output;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    public Reporter(PrintStream errors, PrintStream runtimeErrors, Output output) {
+        this.errors = errors;
+        this.runtimeErrors = runtimeErrors;
+        this.output = output;
+    }
+
+    /**
+     * Syntax errors to stdout and runtime errors to stderr.
+     */
+    public Reporter() {
+        this(System.out, System.err, null);
+    }
+
+    @Override
+    public void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    @Override
+    public void error(Token token, String message) {
+        if (token.type() == TokenType.EOF) {
+            report(token.line(), " at end", message);
+        } else {
+            report(token.line(), STR." at '\{token.lexeme()}'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        flushOutput();
+        errors.println(STR."[line \{line}] Error \{where}: \{message}");
+        hadError = true;
+    }
+
+    @Override
+    public void runtimeError(RuntimeError error) {
+        flushOutput();
+        runtimeErrors.println(STR."\{error.getMessage()}\n[line \{error.token.line()}]");
+        hadRuntimeError = true;
+        LoxEvents.error(error);
+    }
+
+    private void flushOutput() {
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    /**
+     * Forgets syntax errors, for the REPL and other callers that go on to
+     * the next piece of source.
+     */
+    public void clearError() {
+        hadError = false;
+    }
+
+    /**
+     * Forgets all errors, before running something new.
+     */
+    public void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
@@ -0,0 +1,322 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Resolver implements AstWalker<Void, Void> {
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    private static class Scope {
+        // Slot of the latest declaration of every name in the scope.
+        final Map<Symbol, Integer> slots = new HashMap<>();
+        // The name declared in each slot, in order.
+        final List<Symbol> names = new ArrayList<>();
+        // References that a declaration later in this scope may still
+        // change, resolved when it ends.
+        final List<Reference> references = new ArrayList<>();
+    }
+
+    /**
+     * A reference from inside a function to a name that scopes around the
+     * function can still declare before the function runs. For each of
+     * those scopes, innermost first, it keeps how far up from the reference
+     * the scope is and how many slots it had at the time; {@code slot} is
+     * what the name resolved to then.
+     */
+    private record Reference(Expr expr, Symbol name, List<Scope> scopes, int[] depths, int[] declared, Interpreter.Slot slot) {
+        Interpreter.Slot resolve() {
+            var resolved = slot;
+            for (int i = scopes.size() - 1; i >= 0; i--) {
+                var names = scopes.get(i).names;
+                for (int index = declared[i]; index < names.size(); index++) {
+                    if (names.get(index) == name) {
+                        resolved = new Interpreter.Slot(depths[i], index, resolved);
+                    }
+                }
+            }
+            return resolved;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final List<Scope> scopes = new ArrayList<>();
+    private FunctionType currentFunction = FunctionType.NONE;
+    // Index of the first scope of the function being resolved.
+    private int functionScope = 0;
+
+    public Resolver(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    public void resolve(List<Stmt> statements) {
+        for (var statement : statements) {
+            walk(statement);
+        }
+        interpreter.publishResolution();
+    }
+
+    public void resolve(Expr expr) {
+        walk(expr);
+        interpreter.publishResolution();
+    }
+
+    @Override
+    public Void walk(Expr.Assign assign) {
+        walk(assign.value());
+        resolveLocal(assign, assign.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Binary binary) {
+        walk(binary.left());
+        walk(binary.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Call call) {
+        walk(call.callee());
+        for (var argument : call.arguments()) {
+            walk(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Unary unary) {
+        walk(unary.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Literal literal) {
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Logical logical) {
+        walk(logical.left());
+        walk(logical.right());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Grouping grouping) {
+        walk(grouping.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.ExpressionList expressionList) {
+        for (var expr : expressionList.expressions()) {
+            walk(expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Ternary ternary) {
+        walk(ternary.cond());
+        walk(ternary.thenBranch());
+        walk(ternary.elseBranch());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Variable variable) {
+        resolveLocal(variable, variable.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Function function) {
+        resolveFunction(function.params(), function.body());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Block stmt) {
+        beginScope();
+        resolve(stmt.statements());
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Expression stmt) {
+        walk(stmt.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Function stmt) {
+        declare(stmt.name());
+
+        resolveFunction(stmt.params(), stmt.body());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.If stmt) {
+        walk(stmt.condition());
+        walk(stmt.thenBranch());
+        if (stmt.elseBranch() != null) {
+            walk(stmt.elseBranch());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Print stmt) {
+        walk(stmt.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            interpreter.diagnostics.error(stmt.keyword(), "Can't return from top-level code.");
+        }
+
+        if (stmt.value() != null) {
+            walk(stmt.value());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Var stmt) {
+        // The initializer runs before the variable exists, so a name in it
+        // means whatever it meant before the declaration.
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+        declare(stmt.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.While stmt) {
+        walk(stmt.condition());
+        walk(stmt.body());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.For stmt) {
+        // A variable declared by the initializer gets a scope of its own,
+        // around the whole loop.
+        boolean scoped = stmt.initializer() instanceof Stmt.Var;
+        if (scoped) {
+            beginScope();
+        }
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+        if (stmt.condition() != null) {
+            walk(stmt.condition());
+        }
+        if (stmt.increment() != null) {
+            walk(stmt.increment());
+        }
+        walk(stmt.body());
+        if (scoped) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.LoopControl stmt) {
+        // Nothing to resolve.
+        return null;
+    }
+
+    private void resolveFunction(List<Token> params, List<Stmt> body) {
+        var enclosingFunction = currentFunction;
+        var enclosingScope = functionScope;
+        currentFunction = FunctionType.FUNCTION;
+        functionScope = scopes.size();
+
+        beginScope();
+        for (var param : params) {
+            declare(param);
+        }
+        resolve(body);
+        endScope();
+
+        currentFunction = enclosingFunction;
+        functionScope = enclosingScope;
+    }
+
+    private void beginScope() {
+        scopes.add(new Scope());
+    }
+
+    private void endScope() {
+        var scope = scopes.removeLast();
+        for (var reference : scope.references) {
+            interpreter.resolve(reference.expr(), reference.resolve());
+        }
+    }
+
+    // Declaring a name again in the same scope gives it a new slot, so code
+    // after the declaration sees the new variable.
+    private void declare(Token name) {
+        if (scopes.isEmpty()) {
+            return;
+        }
+
+        var scope = scopes.getLast();
+        scope.slots.put(name.symbol(), scope.names.size());
+        scope.names.add(name.symbol());
+    }
+
+    private void resolveLocal(Expr expr, Token name) {
+        var symbol = name.symbol();
+        Interpreter.Slot slot = null;
+        // Scopes outside the function being resolved, which can go on
+        // declaring names before the function is called.
+        List<Scope> outer = null;
+        int[] depths = null;
+        int[] declared = null;
+
+        for (int i = scopes.size() - 1; i >= 0 && slot == null; i--) {
+            var scope = scopes.get(i);
+            int depth = scopes.size() - 1 - i;
+            if (i < functionScope) {
+                if (outer == null) {
+                    outer = new ArrayList<>();
+                    depths = new int[i + 1];
+                    declared = new int[i + 1];
+                }
+                depths[outer.size()] = depth;
+                declared[outer.size()] = scope.names.size();
+                outer.add(scope);
+            }
+            var index = scope.slots.get(symbol);
+            if (index != null) {
+                slot = new Interpreter.Slot(depth, index);
+            }
+        }
+
+        // Not found. Assume it is global.
+        if (slot == null) {
+            slot = interpreter.globalSlot(name);
+        }
+
+        if (outer == null) {
+            interpreter.resolve(expr, slot);
+        } else {
+            outer.getLast().references.add(new Reference(expr, symbol, outer, depths, declared, slot));
+        }
+    }
+}
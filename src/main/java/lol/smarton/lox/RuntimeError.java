@@ -6,5 +6,6 @@ public class RuntimeError extends RuntimeException {
     public RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        Metrics.runtimeError();
     }
 }
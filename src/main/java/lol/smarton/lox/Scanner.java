@@ -1,57 +1,207 @@
 package lol.smarton.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static lol.smarton.lox.TokenType.*;
 
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final int BUFFER_SIZE = 8192;
+
+    // Text not yet turned into tokens. When scanning a reader, the buffer is
+    // refilled on demand and only ever holds the token being scanned plus
+    // whatever has been read ahead, never the whole input.
+    private char[] buffer;
+    private int limit;
+    private final Reader reader;
+    private boolean exhausted;
+    private final Diagnostics diagnostics;
+    private final SymbolTable symbols;
+    // Where scanned tokens go: into a token buffer when scanning a whole
+    // string with scanBuffer(), otherwise one at a time into pending.
+    private TokenBuffer output = null;
+    private Token pending = null;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
+    // Keyword token types indexed by symbol id. Keywords are interned like
+    // any other name, into a table every symbol table starts from, so telling
+    // them apart from identifiers is an array load.
+    private static final TokenType[] keywords;
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",         AND);
-        keywords.put("class",       CLASS);
-        keywords.put("else",        ELSE);
-        keywords.put("false",       FALSE);
-        keywords.put("for",         FOR);
-        keywords.put("fun",         FUN);
-        keywords.put("if",          IF);
-        keywords.put("nil",         NIL);
-        keywords.put("or",          OR);
-        keywords.put("print",       PRINT);
-        keywords.put("return",      RETURN);
-        keywords.put("super",       SUPER);
-        keywords.put("this",        THIS);
-        keywords.put("true",        TRUE);
-        keywords.put("var",         VAR);
-        keywords.put("while",       WHILE);
-        keywords.put("break",       BREAK);
-        keywords.put("continue",    CONTINUE);
-    }
-
-    public Scanner(String source) {
-        this.source = source;
+        var table = new HashMap<Symbol, TokenType>();
+        table.put(SymbolTable.KEYWORDS.of("and"),         AND);
+        table.put(SymbolTable.KEYWORDS.of("class"),       CLASS);
+        table.put(SymbolTable.KEYWORDS.of("else"),        ELSE);
+        table.put(SymbolTable.KEYWORDS.of("false"),       FALSE);
+        table.put(SymbolTable.KEYWORDS.of("for"),         FOR);
+        table.put(SymbolTable.KEYWORDS.of("fun"),         FUN);
+        table.put(SymbolTable.KEYWORDS.of("if"),          IF);
+        table.put(SymbolTable.KEYWORDS.of("nil"),         NIL);
+        table.put(SymbolTable.KEYWORDS.of("or"),          OR);
+        table.put(SymbolTable.KEYWORDS.of("print"),       PRINT);
+        table.put(SymbolTable.KEYWORDS.of("return"),      RETURN);
+        table.put(SymbolTable.KEYWORDS.of("super"),       SUPER);
+        table.put(SymbolTable.KEYWORDS.of("this"),        THIS);
+        table.put(SymbolTable.KEYWORDS.of("true"),        TRUE);
+        table.put(SymbolTable.KEYWORDS.of("var"),         VAR);
+        table.put(SymbolTable.KEYWORDS.of("while"),       WHILE);
+        table.put(SymbolTable.KEYWORDS.of("break"),       BREAK);
+        table.put(SymbolTable.KEYWORDS.of("continue"),    CONTINUE);
+
+        int size = 0;
+        for (var symbol : table.keySet()) {
+            size = Math.max(size, symbol.id() + 1);
+        }
+        keywords = new TokenType[size];
+        table.forEach((symbol, type) -> keywords[symbol.id()] = type);
+    }
+
+    // Lexemes of the punctuation tokens. They are always spelled the same
+    // way, so every token shares one string instead of cutting out its own.
+    private static final String[] punctuation = new String[TokenType.values().length];
+
+    static {
+        punctuation[LEFT_PAREN.ordinal()] = "(";
+        punctuation[RIGHT_PAREN.ordinal()] = ")";
+        punctuation[LEFT_BRACE.ordinal()] = "{";
+        punctuation[RIGHT_BRACE.ordinal()] = "}";
+        punctuation[COMMA.ordinal()] = ",";
+        punctuation[DOT.ordinal()] = ".";
+        punctuation[MINUS.ordinal()] = "-";
+        punctuation[PLUS.ordinal()] = "+";
+        punctuation[SEMICOLON.ordinal()] = ";";
+        punctuation[SLASH.ordinal()] = "/";
+        punctuation[STAR.ordinal()] = "*";
+        punctuation[QUESTION_MARK.ordinal()] = "?";
+        punctuation[COLON.ordinal()] = ":";
+        punctuation[BANG.ordinal()] = "!";
+        punctuation[BANG_EQUAL.ordinal()] = "!=";
+        punctuation[EQUAL.ordinal()] = "=";
+        punctuation[EQUAL_EQUAL.ordinal()] = "==";
+        punctuation[GREATER.ordinal()] = ">";
+        punctuation[GREATER_EQUAL.ordinal()] = ">=";
+        punctuation[LESS.ordinal()] = "<";
+        punctuation[LESS_EQUAL.ordinal()] = "<=";
+    }
+
+    public Scanner(String source, Diagnostics diagnostics) {
+        this(source, diagnostics, new SymbolTable());
+    }
+
+    public Scanner(Reader reader, Diagnostics diagnostics) {
+        this(reader, diagnostics, new SymbolTable());
+    }
+
+    /**
+     * A scanner that interns names into {@code symbols}, so they match the
+     * names scanned before into the same table.
+     */
+    Scanner(String source, Diagnostics diagnostics, SymbolTable symbols) {
+        this.diagnostics = diagnostics;
+        this.symbols = symbols;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+        this.reader = null;
+        this.exhausted = true;
+    }
+
+    Scanner(Reader reader, Diagnostics diagnostics, SymbolTable symbols) {
+        this.diagnostics = diagnostics;
+        this.symbols = symbols;
+        this.buffer = new char[BUFFER_SIZE];
+        this.limit = 0;
+        this.reader = reader;
+        this.exhausted = false;
     }
 
     public List<Token> scanTokens() {
+        var tokens = new ArrayList<Token>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type() != EOF);
+        return tokens;
+    }
+
+    /**
+     * Scans the whole source into a compact {@link TokenBuffer}. Only works
+     * on a scanner over a string, since the buffer points into its text.
+     */
+    public TokenBuffer scanBuffer() {
+        if (reader != null) {
+            throw new IllegalStateException("Only a scanner over a string can fill a token buffer.");
+        }
+
+        output = new TokenBuffer(buffer, symbols);
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
+        output.add(EOF, current, 0, line, null);
+        return output;
+    }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+    /**
+     * A cursor that scans each token as the parser moves onto it, so only
+     * the tokens the parser is looking at are ever alive.
+     */
+    public TokenStream stream() {
+        return new TokenStream() {
+            private Token current = null;
+            private Token previous = null;
+
+            @Override
+            public TokenType type() {
+                return current().type();
+            }
+
+            @Override
+            public Token current() {
+                if (current == null) {
+                    current = nextToken();
+                }
+                return current;
+            }
+
+            @Override
+            public Token previous() {
+                return previous;
+            }
+
+            @Override
+            public void advance() {
+                var token = current();
+                if (token.type() != EOF) {
+                    previous = token;
+                    current = nextToken();
+                }
+            }
+        };
     }
-    
+
+    private Token nextToken() {
+        while (pending == null) {
+            if (isAtEnd()) {
+                return new Token(EOF, "", null, line);
+            }
+            start = current;
+            scanToken();
+        }
+
+        var token = pending;
+        pending = null;
+        return token;
+    }
+
     private void scanToken() {
         char c = advance();
         switch (c) {
@@ -105,7 +255,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    diagnostics.error(line, "Unexpected character.");
                 }                    
                 break;
         }
@@ -122,7 +272,7 @@ public class Scanner {
             
             if (isAtEnd()) {
                 System.out.println(STR."innerCount: \{innerCount}");
-                Lox.error(line, "Unclosed block comment.");
+                diagnostics.error(line, "Unclosed block comment.");
                 break;
             }
             
@@ -139,8 +289,13 @@ public class Scanner {
     }
     
     private void number() {
+        // Integers short enough to be exact in a double are summed up as
+        // they are scanned, which saves building a string just to parse it.
+        long value = buffer[start] - '0';
+        int digits = 1;
         while (isDigit(peek())) {
-            advance();
+            value = value * 10 + (advance() - '0');
+            digits++;
         }
 
         if (peek() == '.' && isDigit(peekNext())) {
@@ -149,9 +304,12 @@ public class Scanner {
             while (isDigit(peek())) {
                 advance();
             }
+        } else if (digits <= 15) {
+            addToken(NUMBER, (double) value);
+            return;
         }
         
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, Double.parseDouble(text(start, current)));
     }
     
     private void identifier() {
@@ -159,13 +317,15 @@ public class Scanner {
             advance();
         }
         
-        var text = source.substring(start, current);
-        var type = keywords.get(text);
-        if (type == null) {
-            type = IDENTIFIER;
+        var symbol = symbols.intern(buffer, start, current);
+        var type = symbol.id() < keywords.length ? keywords[symbol.id()] : null;
+        if (output != null) {
+            output.add(type == null ? IDENTIFIER : type, start, current - start, line, null);
+        } else if (type == null) {
+            pending = new Token(IDENTIFIER, symbol.name(), null, line, symbol);
+        } else {
+            pending = new Token(type, symbol.name(), null, line);
         }
-        
-        addToken(type);
     }
     
     private void string() {
@@ -175,13 +335,13 @@ public class Scanner {
         }
         
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string");
+            diagnostics.error(line, "Unterminated string");
             return;
         }
         
         advance();
         
-        var value = source.substring(start + 1, current - 1);
+        var value = text(start + 1, current - 1);
         addToken(STRING, value);
     }
     
@@ -190,7 +350,7 @@ public class Scanner {
             return false;
         }
         
-        if (source.charAt(current) != expected) {
+        if (buffer[current] != expected) {
             return false;
         }
         
@@ -200,12 +360,12 @@ public class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
     
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!available(current + 1)) return '\0';
+        return buffer[current + 1];
     }
     
     private boolean isAlpha(char c) {
@@ -223,19 +383,69 @@ public class Scanner {
     }
     
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !available(current);
+    }
+
+    /**
+     * Makes sure {@code buffer[index]} holds input, reading more if needed.
+     * Text before the current token is dropped to make room, so indexes can
+     * shift; callers go through the fields again afterwards.
+     */
+    private boolean available(int index) {
+        while (index >= limit) {
+            if (exhausted) {
+                return false;
+            }
+
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                limit -= start;
+                current -= start;
+                index -= start;
+                start = 0;
+            }
+            if (buffer.length - limit < BUFFER_SIZE / 2) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+
+            try {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    exhausted = true;
+                } else {
+                    limit += read;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
     }
     
     private char advance() {
-        return source.charAt(current++);
+        return buffer[current++];
+    }
+
+    private String text(int from, int to) {
+        return new String(buffer, from, to - from);
     }
     
     private void addToken(TokenType type) {
-        addToken(type, null);
+        if (output != null) {
+            output.add(type, start, current - start, line, null);
+            return;
+        }
+
+        // Only punctuation comes through here.
+        pending = new Token(type, punctuation[type.ordinal()], null, line);
     }
     
     private void addToken(TokenType type, Object literal) {
-        var text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        if (output != null) {
+            output.add(type, start, current - start, line, literal);
+            return;
+        }
+
+        pending = new Token(type, text(start, current), literal, line);
     }
 }
@@ -0,0 +1,70 @@
+package lol.smarton.lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Has a {@link ScriptServer} run a script and passes on what it prints.
+ * Nothing of the interpreter is loaded on this side, so the client starts
+ * about as fast as the JVM does.
+ */
+final class ScriptClient {
+    private ScriptClient() {}
+
+    /**
+     * Runs {@code script} on the server listening on {@code socket}. Returns
+     * the script's exit code, or one of the server's own when the server
+     * can't be reached or can't be trusted to be the user's own.
+     */
+    static int run(Path socket, Path script) {
+        SocketChannel channel;
+        try {
+            var problem = ScriptServer.checkPrivate(socket);
+            if (problem != null) {
+                System.err.println(STR."Not connecting to \{socket}: \{problem}.");
+                return ScriptServer.UNAVAILABLE;
+            }
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            System.err.println(STR."No server listening on \{socket}: \{e.getMessage()}");
+            return ScriptServer.UNAVAILABLE;
+        }
+
+        try (channel) {
+            if (!ScriptServer.isOwnPeer(channel)) {
+                System.err.println(STR."Not using \{socket}: the server is run by another user.");
+                return ScriptServer.UNAVAILABLE;
+            }
+
+            var request = new DataOutputStream(Channels.newOutputStream(channel));
+            request.writeUTF(script.toAbsolutePath().toString());
+            request.flush();
+
+            var frames = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                byte tag = frames.readByte();
+                if (tag == ScriptServer.EXIT) {
+                    System.out.flush();
+                    return frames.readInt();
+                }
+
+                var bytes = frames.readNBytes(frames.readInt());
+                var stream = tag == ScriptServer.OUT ? System.out : System.err;
+                stream.write(bytes, 0, bytes.length);
+            }
+        } catch (EOFException e) {
+            System.err.println("The server closed the connection before the script finished.");
+            return ScriptServer.IO_ERROR;
+        } catch (IOException e) {
+            System.err.println(STR."Lost the server: \{e.getMessage()}");
+            return ScriptServer.IO_ERROR;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package lol.smarton.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.Executors;
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Runs scripts for {@link ScriptClient}s connecting over a Unix domain
+ * socket, so a batch of short scripts pays for starting and warming up the
+ * JVM once instead of on every run.
+ * <p>
+ * A client sends the absolute path of a script. The server runs it in a
+ * fresh {@link LoxContext}, so nothing one script defines is seen by the
+ * next, and sends back frames: a tag byte, then for {@link #OUT} and
+ * {@link #ERR} a length and that many bytes of output, and for
+ * {@link #EXIT} the exit code the command line would have used. Every
+ * connection is served on a virtual thread of its own. Names interned
+ * while running a script belong to its context, so a server that runs for
+ * weeks doesn't hold on to every identifier it has ever seen.
+ * <p>
+ * Only the user who started the server may use it. The socket has to be in
+ * a directory that user owns and no one else can write to, the socket file
+ * itself is closed to everyone else, and both ends check who is on the
+ * other side of a connection before trusting it.
+ */
+final class ScriptServer {
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    // Exit codes for a script the server couldn't read, for a client that
+    // couldn't reach the server or lost it and for a server that found
+    // another one on its socket, as in sysexits.h.
+    static final int NO_INPUT = 66;
+    static final int UNAVAILABLE = 69;
+    static final int IO_ERROR = 74;
+
+    // Output is sent in frames of up to this many bytes.
+    private static final int FRAME_SIZE = 8 * 1024;
+
+    private final Path socket;
+    private final LoxEngine engine;
+    private final Budget budget;
+
+    ScriptServer(Path socket, LoxEngine engine, Budget budget) {
+        this.socket = socket;
+        this.engine = engine;
+        this.budget = budget;
+    }
+
+    /**
+     * The socket used unless another is given: in the user's runtime
+     * directory where there is one, otherwise in a directory of the user's
+     * own in the temp directory, which {@link #serve} creates.
+     */
+    static Path defaultSocket() {
+        var runtime = System.getenv("XDG_RUNTIME_DIR");
+        if (runtime != null && !runtime.isEmpty()) {
+            return Path.of(runtime, "jlox.sock");
+        }
+        return Path.of(System.getProperty("java.io.tmpdir"), STR."jlox-\{System.getProperty("user.name")}", "jlox.sock");
+    }
+
+    /**
+     * Why a socket at {@code socket} could have been put there by someone
+     * else, or null if only the current user can have: its directory has to
+     * be theirs and not writable by anyone else.
+     */
+    static String checkPrivate(Path socket) throws IOException {
+        var directory = socket.toAbsolutePath().getParent();
+        var attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attributes.isDirectory()) {
+            return STR."\{directory} is not a directory";
+        }
+        if (!attributes.owner().equals(currentUser())) {
+            return STR."\{directory} belongs to \{attributes.owner().getName()}";
+        }
+        var permissions = attributes.permissions();
+        if (permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+            return STR."other users can write to \{directory}";
+        }
+        return null;
+    }
+
+    /**
+     * Whether the process at the other end of {@code channel} runs as the
+     * current user.
+     */
+    static boolean isOwnPeer(SocketChannel channel) throws IOException {
+        return channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user().equals(currentUser());
+    }
+
+    private static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    /**
+     * Accepts clients until the process is stopped. Returns false straight
+     * away if another server is listening on the socket, or if the socket's
+     * directory isn't private to this user; a socket file left behind by a
+     * server that didn't shut down cleanly is replaced.
+     */
+    boolean serve() throws IOException {
+        var directory = socket.toAbsolutePath().getParent();
+        Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        var problem = checkPrivate(socket);
+        if (problem != null) {
+            System.err.println(STR."[server] won't listen on \{socket}: \{problem}");
+            return false;
+        }
+        if (isListening(socket)) {
+            System.err.println(STR."[server] another server is listening on \{socket}");
+            return false;
+        }
+        Files.deleteIfExists(socket);
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                }
+            }));
+            System.err.println(STR."[server] listening on \{socket}");
+
+            while (true) {
+                var client = server.accept();
+                executor.submit(() -> handle(client));
+            }
+        }
+    }
+
+    private static boolean isListening(Path socket) {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try (var _ = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+             var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+             var frames = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            if (!isOwnPeer(client)) {
+                System.err.println("[server] turned away a client run by another user");
+                return;
+            }
+            var path = Path.of(in.readUTF());
+            var out = stream(frames, OUT);
+            var err = stream(frames, ERR);
+
+            int status;
+            try {
+                var source = Files.readString(path);
+                var context = engine.newContext(out, err);
+                context.setBudget(budget);
+                status = context.run(source);
+            } catch (IOException e) {
+                err.println(STR."Can't read \{path}: \{e.getMessage()}");
+                status = NO_INPUT;
+            }
+
+            out.flush();
+            err.flush();
+            synchronized (frames) {
+                frames.writeByte(EXIT);
+                frames.writeInt(status);
+                frames.flush();
+            }
+        } catch (EOFException e) {
+            // Gone before sending a script, like a server checking whether
+            // this one is up.
+        } catch (IOException e) {
+            System.err.println(STR."[server] dropped a client: \{e.getMessage()}");
+        }
+    }
+
+    private static PrintStream stream(DataOutputStream frames, byte tag) {
+        return new PrintStream(new BufferedOutputStream(new FrameStream(frames, tag), FRAME_SIZE), false, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends whatever is written to it as frames with one tag. Both streams
+     * of a client share the connection, so a frame is written whole.
+     */
+    private static final class FrameStream extends OutputStream {
+        private final DataOutputStream frames;
+        private final byte tag;
+
+        FrameStream(DataOutputStream frames, byte tag) {
+            this.frames = frames;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            synchronized (frames) {
+                frames.writeByte(tag);
+                frames.writeInt(length);
+                frames.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (frames) {
+                frames.flush();
+            }
+        }
+    }
+}
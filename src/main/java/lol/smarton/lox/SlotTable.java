@@ -0,0 +1,114 @@
+package lol.smarton.lox;
+
+import lol.smarton.lox.ast.Expr;
+
+/**
+ * What the resolver found for each variable expression, keyed by identity
+ * like an {@link java.util.IdentityHashMap}. One interpreter writes it
+ * while the tasks forked from it read, in the REPL and when a script is
+ * streamed, so an entry never moves once it is in a table: removing one
+ * only clears its value, and growing builds a new table that takes over in
+ * one volatile write. A task looking at the old table still finds everything
+ * that was in it. Lookups take no lock.
+ * <p>
+ * Writes are seen by other threads once {@link #publish} has been called.
+ */
+final class SlotTable {
+    private static final int MIN_CAPACITY = 32;
+
+    // Keys and values side by side: a key at an even index, its slot after it.
+    private volatile Object[] table = new Object[2 * MIN_CAPACITY];
+    // Keys in the table, with or without a value, and those with one.
+    private int used = 0;
+    private int live = 0;
+
+    Interpreter.Slot get(Expr expr) {
+        var table = this.table;
+        int mask = table.length - 1;
+        for (int i = index(expr, table.length); ; i = (i + 2) & mask) {
+            var key = table[i];
+            if (key == expr) {
+                return (Interpreter.Slot) table[i + 1];
+            }
+            if (key == null) {
+                return null;
+            }
+        }
+    }
+
+    void put(Expr expr, Interpreter.Slot slot) {
+        var table = this.table;
+        int mask = table.length - 1;
+        int i = index(expr, table.length);
+        for (var key = table[i]; key != null; key = table[i]) {
+            if (key == expr) {
+                if (table[i + 1] == null) {
+                    live++;
+                }
+                table[i + 1] = slot;
+                return;
+            }
+            i = (i + 2) & mask;
+        }
+
+        // The value goes in first, so a reader never finds the key without it.
+        table[i + 1] = slot;
+        table[i] = expr;
+        used++;
+        live++;
+        if (3 * used > table.length) {
+            grow();
+        }
+    }
+
+    void remove(Expr expr) {
+        var table = this.table;
+        int mask = table.length - 1;
+        for (int i = index(expr, table.length); table[i] != null; i = (i + 2) & mask) {
+            if (table[i] == expr) {
+                if (table[i + 1] != null) {
+                    table[i + 1] = null;
+                    live--;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes every write so far visible to threads that look afterwards.
+     */
+    void publish() {
+        table = table;
+    }
+
+    // Rebuilt from the entries that still have a value, so a script run
+    // statement by statement doesn't keep the keys it released.
+    private void grow() {
+        int capacity = MIN_CAPACITY;
+        while (3 * live >= capacity) {
+            capacity <<= 1;
+        }
+
+        var old = this.table;
+        var table = new Object[2 * capacity];
+        int mask = table.length - 1;
+        for (int j = 0; j < old.length; j += 2) {
+            if (old[j] != null && old[j + 1] != null) {
+                int i = index(old[j], table.length);
+                while (table[i] != null) {
+                    i = (i + 2) & mask;
+                }
+                table[i] = old[j];
+                table[i + 1] = old[j + 1];
+            }
+        }
+        used = live;
+        this.table = table;
+    }
+
+    private static int index(Object key, int length) {
+        int h = System.identityHashCode(key);
+        return ((h << 1) - (h << 8)) & (length - 1);
+    }
+}
@@ -0,0 +1,40 @@
+package lol.smarton.lox;
+
+/**
+ * An interned name. A {@link SymbolTable} hands out exactly one symbol per
+ * distinct spelling, so symbols from the same table are compared with
+ * {@code ==} and can key identity-based tables. Each one also gets a small
+ * dense {@link #id()}, unique within its table.
+ * <p>
+ * The scanner interns straight from the source text, so an identifier
+ * that has been seen before costs no new string.
+ */
+public final class Symbol {
+    private final String name;
+    private final int id;
+    private final int hash;
+
+    Symbol(String name, int id, int hash) {
+        this.name = name;
+        this.id = id;
+        this.hash = hash;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
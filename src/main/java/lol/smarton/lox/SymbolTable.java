@@ -0,0 +1,120 @@
+package lol.smarton.lox;
+
+/**
+ * Where names are interned; see {@link Symbol}. The keywords live in one
+ * table that is filled when this class loads and never written again, so
+ * every table can share them. Everything else is interned into the table of
+ * whoever is scanning: a {@link LoxContext}, a single compile, or the
+ * command line. Names a context has seen are dropped along with it, and a
+ * table is only ever used by one thread at a time, so nothing needs a lock.
+ */
+final class SymbolTable {
+    // Keywords get the lowest ids, so the scanner can tell them apart from
+    // other names by id alone.
+    static final SymbolTable KEYWORDS = new SymbolTable(null);
+
+    static {
+        for (var keyword : new String[] {
+            "and", "class", "else", "false", "for", "fun", "if", "nil", "or", "print",
+            "return", "super", "this", "true", "var", "while", "break", "continue"}) {
+            KEYWORDS.of(keyword);
+        }
+        KEYWORDS.frozen = true;
+    }
+
+    private final SymbolTable base;
+    private Symbol[] table = new Symbol[64];
+    private int count;
+    private boolean frozen = false;
+
+    SymbolTable() {
+        this(KEYWORDS);
+    }
+
+    private SymbolTable(SymbolTable base) {
+        this.base = base;
+        this.count = base == null ? 0 : base.count;
+    }
+
+    Symbol of(String name) {
+        return intern(name.toCharArray(), 0, name.length());
+    }
+
+    /**
+     * Returns the symbol spelled by {@code text[start, end)}.
+     */
+    Symbol intern(char[] text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text[i];
+        }
+
+        if (base != null) {
+            var keyword = base.find(text, start, end, hash);
+            if (keyword != null) {
+                return keyword;
+            }
+        }
+
+        var symbol = find(text, start, end, hash);
+        if (symbol != null) {
+            return symbol;
+        }
+        if (frozen) {
+            throw new IllegalStateException("The keyword table is only read once it's filled.");
+        }
+
+        symbol = new Symbol(new String(text, start, end - start), count++, hash);
+        insert(table, symbol);
+        if ((count - (base == null ? 0 : base.count)) * 2 > table.length) {
+            grow();
+        }
+        return symbol;
+    }
+
+    private Symbol find(char[] text, int start, int end, int hash) {
+        int mask = table.length - 1;
+        for (int index = mix(hash) & mask; table[index] != null; index = (index + 1) & mask) {
+            var symbol = table[index];
+            if (symbol.hashCode() == hash && spells(symbol.name(), text, start, end)) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+
+    private static boolean spells(String name, char[] text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void insert(Symbol[] table, Symbol symbol) {
+        int mask = table.length - 1;
+        int index = mix(symbol.hashCode()) & mask;
+        while (table[index] != null) {
+            index = (index + 1) & mask;
+        }
+        table[index] = symbol;
+    }
+
+    private void grow() {
+        var old = table;
+        table = new Symbol[old.length * 2];
+        for (var symbol : old) {
+            if (symbol != null) {
+                insert(table, symbol);
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,308 @@
+package lol.smarton.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Natives for running Lox code concurrently:
+ * <ul>
+ *     <li>{@code spawn(fn)} calls {@code fn} with no arguments on a new
+ *     virtual thread and returns a task.</li>
+ *     <li>{@code join(task)} waits for the task and returns what {@code fn}
+ *     returned, or fails with the task's runtime error.</li>
+ *     <li>{@code channel(capacity)} makes a bounded channel;
+ *     {@code send(channel, value)} blocks while it is full and
+ *     {@code receive(channel)} while it is empty.</li>
+ *     <li>{@code sleep(ms)} pauses the current task.</li>
+ * </ul>
+ * Each task runs in an interpreter of its own that shares the globals of
+ * the one that spawned it, so scopes and call state stay on one thread.
+ * Globals and captured variables are shared without locking; tasks should
+ * hand values to each other through channels. A {@link LoxContext} run
+ * returns only once the tasks it spawned have finished.
+ */
+final class Tasks {
+    private Tasks() {}
+
+    static void define(Environment globals) {
+        globals.define("spawn", new Spawn());
+        globals.define("join", new Join());
+        globals.define("channel", new MakeChannel());
+        globals.define("send", new Send());
+        globals.define("receive", new Receive());
+        globals.define("sleep", new Sleep());
+    }
+
+    /**
+     * Counts the tasks of one interpreter and its forks that are still
+     * running. A lock rather than a monitor, so a virtual thread waiting
+     * here doesn't pin its carrier while the tasks need one.
+     */
+    static final class Group {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition done = lock.newCondition();
+        private int running = 0;
+
+        private void started() {
+            lock.lock();
+            try {
+                running++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void finished() {
+            lock.lock();
+            try {
+                if (--running == 0) {
+                    done.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void await() throws InterruptedException {
+            lock.lock();
+            try {
+                while (running > 0) {
+                    done.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    static final class Task {
+        private final Thread thread;
+        private Object result = null;
+        private RuntimeError error = null;
+
+        private Task(Interpreter interpreter, LoxCallable function) {
+            var group = interpreter.tasks;
+            thread = Thread.ofVirtual().name("lox-task").unstarted(() -> {
+                try {
+                    result = function.call0(interpreter);
+                } catch (RuntimeError e) {
+                    error = e;
+                } finally {
+                    group.finished();
+                }
+            });
+            group.started();
+        }
+
+        // Thread.join makes the task's writes visible to the caller.
+        private Object join() {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted while joining a task.");
+            }
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "<task>";
+        }
+    }
+
+    static final class Channel {
+        // Queues can't hold null, so nil travels as this.
+        private static final Object NIL = new Object();
+
+        private final BlockingQueue<Object> queue;
+
+        private Channel(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public String toString() {
+            return "<channel>";
+        }
+    }
+
+    private static final class Spawn implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call1(interpreter, arguments[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            if (!(a0 instanceof LoxCallable function) || function.arity() != 0) {
+                throw new NativeError("Can only spawn functions without parameters.");
+            }
+
+            var task = new Task(interpreter.fork(), function);
+            task.thread.start();
+            return task;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final class Join implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call1(interpreter, arguments[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            if (!(a0 instanceof Task task)) {
+                throw new NativeError("Can only join tasks.");
+            }
+            return task.join();
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final class MakeChannel implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call1(interpreter, arguments[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            if (!(a0 instanceof Double capacity) || capacity < 1 || capacity != Math.floor(capacity) || capacity > Integer.MAX_VALUE) {
+                throw new NativeError("Channel capacity must be a positive whole number.");
+            }
+            return new Channel(capacity.intValue());
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final class Send implements LoxCallable {
+        @Override
+        public int arity() {
+            return 2;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call2(interpreter, arguments[0], arguments[1]);
+        }
+
+        @Override
+        public Object call2(Interpreter interpreter, Object a0, Object a1) {
+            if (!(a0 instanceof Channel channel)) {
+                throw new NativeError("Can only send to channels.");
+            }
+
+            try {
+                channel.queue.put(a1 == null ? Channel.NIL : a1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted while sending.");
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final class Receive implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call1(interpreter, arguments[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            if (!(a0 instanceof Channel channel)) {
+                throw new NativeError("Can only receive from channels.");
+            }
+
+            try {
+                var value = channel.queue.take();
+                return value == Channel.NIL ? null : value;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted while receiving.");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+
+    private static final class Sleep implements LoxCallable {
+        @Override
+        public int arity() {
+            return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, Object... arguments) {
+            return call1(interpreter, arguments[0]);
+        }
+
+        @Override
+        public Object call1(Interpreter interpreter, Object a0) {
+            if (!(a0 instanceof Double millis) || millis < 0) {
+                throw new NativeError("Can only sleep for a number of milliseconds.");
+            }
+
+            try {
+                Thread.sleep(millis.longValue());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted while sleeping.");
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn>";
+        }
+    }
+}
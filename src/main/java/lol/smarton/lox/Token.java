@@ -1,3 +1,12 @@
 package lol.smarton.lox;
 
-public record Token(TokenType type, String lexeme, Object literal, int line) {}
+/**
+ * Identifiers that were scanned carry their interned {@link Symbol}; every
+ * other token, including names made up by the interpreter, has a null
+ * symbol.
+ */
+public record Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol) {
+    public Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, literal, line, null);
+    }
+}
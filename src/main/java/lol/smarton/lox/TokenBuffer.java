@@ -0,0 +1,147 @@
+package lol.smarton.lox;
+
+import java.util.Arrays;
+
+/**
+ * Scanned tokens stored column-wise: a byte for the type and ints for the
+ * start, length and line of each token, over the source text they came
+ * from. Only literals have anything else to keep, and their values live in
+ * a sparse side table. That is about 13 bytes per token instead of a
+ * {@link Token} record and its lexeme.
+ * <p>
+ * Tokens are only built when the parser asks for one, which it does for the
+ * few it keeps in the syntax tree: names, operators and keywords that
+ * errors get reported at.
+ */
+public final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final char[] source;
+    private final SymbolTable symbols;
+    private byte[] types;
+    private int[] starts;
+    private int[] lengths;
+    private int[] lines;
+    private int size = 0;
+
+    // Values of NUMBER and STRING tokens, in token order, with the index of
+    // the token each one belongs to.
+    private int[] literalTokens = new int[16];
+    private Object[] literalValues = new Object[16];
+    private int literalCount = 0;
+
+    TokenBuffer(char[] source, SymbolTable symbols) {
+        this.source = source;
+        this.symbols = symbols;
+
+        // Scripts average a token every three to five characters; erring
+        // high is cheaper than copying every column when they fill up.
+        int capacity = Math.max(16, source.length / 3);
+        types = new byte[capacity];
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        if (size == types.length) {
+            int capacity = size + (size >> 1);
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+
+        if (literal != null) {
+            if (literalCount == literalTokens.length) {
+                literalTokens = Arrays.copyOf(literalTokens, literalCount * 2);
+                literalValues = Arrays.copyOf(literalValues, literalCount * 2);
+            }
+            literalTokens[literalCount] = size;
+            literalValues[literalCount] = literal;
+            literalCount++;
+        }
+
+        types[size] = (byte) type.ordinal();
+        starts[size] = start;
+        lengths[size] = length;
+        lines[size] = line;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int line(int index) {
+        return lines[index];
+    }
+
+    /**
+     * Builds the token at {@code index}. Every call returns a new object.
+     */
+    public Token token(int index) {
+        var type = type(index);
+        int start = starts[index];
+        int end = start + lengths[index];
+
+        if (type == TokenType.IDENTIFIER) {
+            var symbol = symbols.intern(source, start, end);
+            return new Token(type, symbol.name(), null, lines[index], symbol);
+        }
+
+        Object literal = null;
+        if (type == TokenType.NUMBER || type == TokenType.STRING) {
+            literal = literalValues[Arrays.binarySearch(literalTokens, 0, literalCount, index)];
+        }
+        return new Token(type, new String(source, start, end - start), literal, lines[index], null);
+    }
+
+    /**
+     * A new cursor at the first token.
+     */
+    public TokenStream stream() {
+        return new Cursor();
+    }
+
+    private final class Cursor implements TokenStream {
+        private int current = 0;
+        // The parser usually asks for the same token a few times in a row.
+        private int cachedIndex = -1;
+        private Token cached = null;
+
+        @Override
+        public TokenType type() {
+            return TYPES[types[current]];
+        }
+
+        @Override
+        public Token current() {
+            return materialize(current);
+        }
+
+        @Override
+        public Token previous() {
+            return current == 0 ? null : materialize(current - 1);
+        }
+
+        @Override
+        public void advance() {
+            if (type() != TokenType.EOF) {
+                current++;
+            }
+        }
+
+        private Token materialize(int index) {
+            if (index != cachedIndex) {
+                cached = token(index);
+                cachedIndex = index;
+            }
+            return cached;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package lol.smarton.lox;
+
+import java.util.List;
+
+/**
+ * A cursor over tokens, as the parser sees them: the token under the cursor
+ * plus the one it moved past last. Sources only have to produce a
+ * {@link Token} when {@link #current()} or {@link #previous()} asks for one;
+ * checking the type must not need one.
+ */
+public interface TokenStream {
+    /**
+     * Type of the token under the cursor.
+     */
+    TokenType type();
+
+    Token current();
+
+    /**
+     * The token the cursor last moved past, or null before the first move.
+     */
+    Token previous();
+
+    /**
+     * Moves past the current token. The cursor never moves past EOF.
+     */
+    void advance();
+
+    static TokenStream of(List<Token> tokens) {
+        return new TokenStream() {
+            private int current = 0;
+
+            @Override
+            public TokenType type() {
+                return tokens.get(current).type();
+            }
+
+            @Override
+            public Token current() {
+                return tokens.get(current);
+            }
+
+            @Override
+            public Token previous() {
+                return current == 0 ? null : tokens.get(current - 1);
+            }
+
+            @Override
+            public void advance() {
+                if (type() != TokenType.EOF) {
+                    current++;
+                }
+            }
+        };
+    }
+}
@@ -12,7 +12,7 @@ public sealed interface Stmt permits Stmt.Block, Stmt.Expression, Stmt.For, Stmt
     record Print(Expr expression) implements Stmt {}
     record Return(Token keyword, Expr value) implements Stmt {}
     record Var(Token name, Expr initializer) implements Stmt {}
-    record While(Expr condition, Stmt body) implements Stmt {}
-    record For(Stmt initializer, Expr condition, Expr increment, Stmt body) implements Stmt {}
+    record While(Token keyword, Expr condition, Stmt body) implements Stmt {}
+    record For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) implements Stmt {}
     record LoopControl(Token token) implements Stmt {}
 }
@@ -0,0 +1,112 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+/**
+ * The only overloaded operator. A fresh node rewrites itself to the number
+ * or string case on first execution and falls back to the generic case the
+ * first time that guess is wrong.
+ */
+abstract class AddNode extends BinaryNode {
+    AddNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        super(left, right, operator);
+    }
+
+    protected Object executeGeneric(Object left, Object right) {
+        if (left instanceof Double l && right instanceof Double r) {
+            return l + r;
+        }
+
+        if (left instanceof String l && right instanceof String r) {
+            return l + r;
+        }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static final class Uninitialized extends AddNode {
+        Uninitialized(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var leftValue = left.execute(frame);
+            var rightValue = right.execute(frame);
+
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                replace(new Numbers(left, right, operator));
+            } else if (leftValue instanceof String && rightValue instanceof String) {
+                replace(new Strings(left, right, operator));
+            }
+
+            return executeGeneric(leftValue, rightValue);
+        }
+    }
+
+    static final class Numbers extends AddNode {
+        Numbers(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result();
+            }
+        }
+
+        @Override
+        public double executeDouble(Frame frame) throws UnexpectedResultException {
+            double leftValue;
+            try {
+                leftValue = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                var rightValue = right.execute(frame);
+                throw new UnexpectedResultException(generalize().executeGeneric(e.result(), rightValue));
+            }
+
+            try {
+                return leftValue + right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw new UnexpectedResultException(generalize().executeGeneric(leftValue, e.result()));
+            }
+        }
+
+        private AddNode generalize() {
+            return replace(new Generic(left, right, operator));
+        }
+    }
+
+    static final class Strings extends AddNode {
+        Strings(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var leftValue = left.execute(frame);
+            var rightValue = right.execute(frame);
+
+            if (leftValue instanceof String l && rightValue instanceof String r) {
+                return l + r;
+            }
+
+            return replace(new Generic(left, right, operator)).executeGeneric(leftValue, rightValue);
+        }
+    }
+
+    static final class Generic extends AddNode {
+        Generic(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return executeGeneric(left.execute(frame), right.execute(frame));
+        }
+    }
+}
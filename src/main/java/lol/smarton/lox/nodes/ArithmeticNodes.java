@@ -0,0 +1,109 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+/**
+ * Operators that only accept numbers. Their operands are evaluated unboxed,
+ * so a chain of arithmetic only allocates if its final result is boxed.
+ */
+final class ArithmeticNodes {
+    private ArithmeticNodes() {}
+
+    static final class Subtract extends BinaryNode {
+        Subtract(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        public double executeDouble(Frame frame) {
+            return leftNumber(frame) - rightNumber(frame);
+        }
+    }
+
+    static final class Multiply extends BinaryNode {
+        Multiply(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        public double executeDouble(Frame frame) {
+            return leftNumber(frame) * rightNumber(frame);
+        }
+    }
+
+    static final class Divide extends BinaryNode {
+        Divide(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        public double executeDouble(Frame frame) {
+            var left = leftNumber(frame);
+            var right = rightNumber(frame);
+            if (right == 0) {
+                throw new RuntimeError(operator, "Division by 0.");
+            }
+            return left / right;
+        }
+    }
+
+    static final class Greater extends BinaryNode {
+        Greater(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return leftNumber(frame) > rightNumber(frame);
+        }
+    }
+
+    static final class GreaterEqual extends BinaryNode {
+        GreaterEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return leftNumber(frame) >= rightNumber(frame);
+        }
+    }
+
+    static final class Less extends BinaryNode {
+        Less(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return leftNumber(frame) < rightNumber(frame);
+        }
+    }
+
+    static final class LessEqual extends BinaryNode {
+        LessEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return leftNumber(frame) <= rightNumber(frame);
+        }
+    }
+}
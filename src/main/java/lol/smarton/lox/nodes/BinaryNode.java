@@ -0,0 +1,52 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+abstract class BinaryNode extends ExpressionNode {
+    protected ExpressionNode left;
+    protected ExpressionNode right;
+    protected final Token operator;
+
+    BinaryNode(ExpressionNode left, ExpressionNode right, Token operator) {
+        this.left = adopt(left);
+        this.right = adopt(right);
+        this.operator = operator;
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        // A node executing recursively may try to replace itself more than
+        // once; only the first replacement applies.
+        if (left == oldChild) {
+            left = newChild;
+        } else if (right == oldChild) {
+            right = newChild;
+        }
+    }
+
+    protected RuntimeError numberOperandsError() {
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * Evaluates the left operand of a numeric operator. If it is not a
+     * number, the right operand is still evaluated before failing.
+     */
+    protected double leftNumber(Frame frame) {
+        try {
+            return left.executeDouble(frame);
+        } catch (UnexpectedResultException e) {
+            right.executeVoid(frame);
+            throw numberOperandsError();
+        }
+    }
+
+    protected double rightNumber(Frame frame) {
+        try {
+            return right.executeDouble(frame);
+        } catch (UnexpectedResultException e) {
+            throw numberOperandsError();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package lol.smarton.lox.nodes;
+
+final class BlockNode extends StatementNode {
+    private final StatementNode[] statements;
+    private final int frameSize;
+
+    BlockNode(StatementNode[] statements, int frameSize) {
+        this.statements = statements;
+        this.frameSize = frameSize;
+        for (var statement : statements) {
+            adopt(statement);
+        }
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        // A block that declares nothing shares the enclosing frame.
+        var scope = frameSize == 0 ? frame : new Frame(frame, frameSize);
+        for (var statement : statements) {
+            statement.execute(scope);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.LoxCallable;
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+final class CallNode extends ExpressionNode {
+    private ExpressionNode callee;
+    private final ExpressionNode[] arguments;
+    private final Token paren;
+
+    CallNode(ExpressionNode callee, ExpressionNode[] arguments, Token paren) {
+        this.callee = adopt(callee);
+        this.arguments = arguments;
+        this.paren = paren;
+        for (var argument : arguments) {
+            adopt(argument);
+        }
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        var function = callee.execute(frame);
+
+        var values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].execute(frame);
+        }
+
+        if (function instanceof NodeFunction nodeFunction) {
+            checkArity(nodeFunction.root.arity, values.length);
+            return nodeFunction.call(values);
+        }
+
+        if (function instanceof LoxCallable callable) {
+            checkArity(callable.arity(), values.length);
+            return callable.call(null, values);
+        }
+
+        throw new RuntimeError(paren, "Can only call functions and classes.");
+    }
+
+    private void checkArity(int arity, int count) {
+        if (count != arity) {
+            throw new RuntimeError(paren, STR."Expected \{arity} arguments but got \{count}.");
+        }
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (callee == oldChild) {
+            callee = newChild;
+            return;
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] == oldChild) {
+                arguments[i] = newChild;
+                return;
+            }
+        }
+    }
+}
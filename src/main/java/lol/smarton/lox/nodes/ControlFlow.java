@@ -0,0 +1,27 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * Exceptions used to unwind the node tree for break, continue and return.
+ * They carry no stack trace, and break/continue are preallocated.
+ */
+abstract class ControlFlow extends RuntimeException {
+    private ControlFlow() {
+        super(null, null, false, false);
+    }
+
+    static final class Break extends ControlFlow {
+        static final Break INSTANCE = new Break();
+    }
+
+    static final class Continue extends ControlFlow {
+        static final Continue INSTANCE = new Continue();
+    }
+
+    static final class Return extends ControlFlow {
+        final Object value;
+
+        Return(Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lol.smarton.lox.nodes;
+
+final class DefineGlobalNode extends StatementNode {
+    private final Globals globals;
+    private final String name;
+    private ExpressionNode value;
+
+    DefineGlobalNode(Globals globals, String name, ExpressionNode value) {
+        this.globals = globals;
+        this.name = name;
+        this.value = adopt(value);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        globals.define(name, value.execute(frame));
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (value == oldChild) {
+            value = newChild;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package lol.smarton.lox.nodes;
+
+final class DefineLocalNode extends StatementNode {
+    private final int slot;
+    private ExpressionNode value;
+    // Set once the value was not a number, after which it is stored boxed.
+    private boolean generic = false;
+
+    DefineLocalNode(int slot, ExpressionNode value) {
+        this.slot = slot;
+        this.value = adopt(value);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        if (generic) {
+            frame.setObject(slot, value.execute(frame));
+            return;
+        }
+
+        try {
+            frame.setDouble(slot, value.executeDouble(frame));
+        } catch (UnexpectedResultException e) {
+            generic = true;
+            frame.setObject(slot, e.result());
+        }
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (value == oldChild) {
+            value = newChild;
+        }
+    }
+}
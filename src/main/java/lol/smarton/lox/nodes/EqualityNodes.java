@@ -0,0 +1,33 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Token;
+
+import static lol.smarton.lox.Interpreter.isEqual;
+
+final class EqualityNodes {
+    private EqualityNodes() {}
+
+    static final class Equal extends BinaryNode {
+        Equal(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var leftValue = left.execute(frame);
+            return isEqual(leftValue, right.execute(frame));
+        }
+    }
+
+    static final class NotEqual extends BinaryNode {
+        NotEqual(ExpressionNode left, ExpressionNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var leftValue = left.execute(frame);
+            return !isEqual(leftValue, right.execute(frame));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package lol.smarton.lox.nodes;
+
+public abstract class ExpressionNode extends Node {
+    public abstract Object execute(Frame frame);
+
+    /**
+     * Evaluates to an unboxed number. Nodes that can produce one without
+     * allocating override this; the default boxes through {@link #execute}.
+     */
+    public double executeDouble(Frame frame) throws UnexpectedResultException {
+        var value = execute(frame);
+        if (value instanceof Double number) {
+            return number;
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    /**
+     * Evaluates only for side effects, so the result never has to be boxed.
+     */
+    public void executeVoid(Frame frame) {
+        execute(frame);
+    }
+}
@@ -0,0 +1,21 @@
+package lol.smarton.lox.nodes;
+
+final class ExpressionStatementNode extends StatementNode {
+    private ExpressionNode expression;
+
+    ExpressionStatementNode(ExpressionNode expression) {
+        this.expression = adopt(expression);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        expression.executeVoid(frame);
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (expression == oldChild) {
+            expression = newChild;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package lol.smarton.lox.nodes;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class ForNode extends StatementNode {
+    private final StatementNode initializer;
+    private ExpressionNode condition;
+    private ExpressionNode increment;
+    private final StatementNode body;
+    private final int frameSize;
+
+    ForNode(StatementNode initializer, ExpressionNode condition, ExpressionNode increment, StatementNode body, int frameSize) {
+        this.initializer = adopt(initializer);
+        this.condition = adopt(condition);
+        this.increment = adopt(increment);
+        this.body = adopt(body);
+        this.frameSize = frameSize;
+    }
+
+    @Override
+    public void execute(Frame enclosing) {
+        // The loop variable, if there is one, has a frame of its own.
+        var frame = frameSize == 0 ? enclosing : new Frame(enclosing, frameSize);
+        if (initializer != null) {
+            initializer.execute(frame);
+        }
+
+        while (condition == null || isTruthy(condition.execute(frame))) {
+            try {
+                body.execute(frame);
+            } catch (ControlFlow.Continue _) {
+                // Do nothing.
+            } catch (ControlFlow.Break _) {
+                break;
+            }
+
+            if (increment != null) {
+                increment.executeVoid(frame);
+            }
+        }
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (condition == oldChild) {
+            condition = newChild;
+        } else if (increment == oldChild) {
+            increment = newChild;
+        }
+    }
+}
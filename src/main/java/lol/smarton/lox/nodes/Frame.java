@@ -0,0 +1,59 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * Storage for one lexical scope. Its size is known when the tree is built,
+ * so slots never have to grow. Numbers are kept unboxed in a parallel array
+ * and the object slot holds a marker instead.
+ */
+public final class Frame {
+    private static final Object NUMBER = new Object();
+
+    final Frame parent;
+    private final Object[] slots;
+    private double[] numbers = null;
+
+    Frame(Frame parent, int size) {
+        this.parent = parent;
+        this.slots = new Object[size];
+    }
+
+    Frame ancestor(int depth) {
+        var frame = this;
+        for (int i = 0; i < depth; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    Object getObject(int slot) {
+        var value = slots[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }
+
+    double getDouble(int slot) throws UnexpectedResultException {
+        var value = slots[slot];
+        if (value == NUMBER) {
+            return numbers[slot];
+        }
+        if (value instanceof Double number) {
+            return number;
+        }
+        throw new UnexpectedResultException(value);
+    }
+
+    void setObject(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    void setDouble(int slot, double value) {
+        if (numbers == null) {
+            numbers = new double[slots.length];
+        }
+        slots[slot] = NUMBER;
+        numbers[slot] = value;
+    }
+
+    void setArguments(Object[] arguments) {
+        System.arraycopy(arguments, 0, slots, 0, arguments.length);
+    }
+}
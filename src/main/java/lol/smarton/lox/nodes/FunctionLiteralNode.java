@@ -0,0 +1,17 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * Creates a closure over the current frame, for both declarations and lambdas.
+ */
+final class FunctionLiteralNode extends ExpressionNode {
+    private final FunctionRoot root;
+
+    FunctionLiteralNode(FunctionRoot root) {
+        this.root = adopt(root);
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        return new NodeFunction(root, frame);
+    }
+}
@@ -0,0 +1,23 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * The shared, immutable part of a function: its body and frame layout.
+ * Every closure created from the same declaration points at one root, so
+ * specializations made while running one closure benefit all of them.
+ */
+final class FunctionRoot extends Node {
+    final String name;
+    final int arity;
+    final StatementNode[] body;
+    final int frameSize;
+
+    FunctionRoot(String name, int arity, StatementNode[] body, int frameSize) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+        this.frameSize = frameSize;
+        for (var statement : body) {
+            adopt(statement);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Token;
+
+final class GlobalReadNode extends ExpressionNode {
+    private final Globals globals;
+    private final Token name;
+
+    GlobalReadNode(Globals globals, Token name) {
+        this.globals = globals;
+        this.name = name;
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        return globals.get(name);
+    }
+}
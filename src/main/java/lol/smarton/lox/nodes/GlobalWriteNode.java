@@ -0,0 +1,29 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Token;
+
+final class GlobalWriteNode extends ExpressionNode {
+    private final Globals globals;
+    private final Token name;
+    private ExpressionNode value;
+
+    GlobalWriteNode(Globals globals, Token name, ExpressionNode value) {
+        this.globals = globals;
+        this.name = name;
+        this.value = adopt(value);
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        var result = value.execute(frame);
+        globals.assign(name, result);
+        return result;
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (value == oldChild) {
+            value = newChild;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class Globals {
+    private final Map<String, Object> values = new HashMap<>();
+
+    Object get(Token name) {
+        var value = values.get(name.lexeme());
+        if (value == null && !values.containsKey(name.lexeme())) {
+            throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 1.");
+        }
+        return value;
+    }
+
+    void assign(Token name, Object value) {
+        if (!values.containsKey(name.lexeme())) {
+            throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}' 2.");
+        }
+        values.put(name.lexeme(), value);
+    }
+
+    void define(String name, Object value) {
+        values.put(name, value);
+    }
+}
@@ -0,0 +1,31 @@
+package lol.smarton.lox.nodes;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class IfNode extends StatementNode {
+    private ExpressionNode condition;
+    private final StatementNode thenBranch;
+    private final StatementNode elseBranch;
+
+    IfNode(ExpressionNode condition, StatementNode thenBranch, StatementNode elseBranch) {
+        this.condition = adopt(condition);
+        this.thenBranch = adopt(thenBranch);
+        this.elseBranch = adopt(elseBranch);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        if (isTruthy(condition.execute(frame))) {
+            thenBranch.execute(frame);
+        } else if (elseBranch != null) {
+            elseBranch.execute(frame);
+        }
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (condition == oldChild) {
+            condition = newChild;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lol.smarton.lox.nodes;
+
+final class LiteralNode extends ExpressionNode {
+    private final Object value;
+
+    LiteralNode(Object value) {
+        this.value = value;
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        return value;
+    }
+
+    static final class Number extends ExpressionNode {
+        private final double value;
+        private final Double boxed;
+
+        Number(double value) {
+            this.value = value;
+            this.boxed = value;
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return boxed;
+        }
+
+        @Override
+        public double executeDouble(Frame frame) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package lol.smarton.lox.nodes;
+
+final class LocalReadNode extends ExpressionNode {
+    private final int depth;
+    private final int slot;
+
+    LocalReadNode(int depth, int slot) {
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        return frame.ancestor(depth).getObject(slot);
+    }
+
+    @Override
+    public double executeDouble(Frame frame) throws UnexpectedResultException {
+        return frame.ancestor(depth).getDouble(slot);
+    }
+}
@@ -0,0 +1,72 @@
+package lol.smarton.lox.nodes;
+
+final class LocalWriteNode extends ExpressionNode {
+    private final int depth;
+    private final int slot;
+    private ExpressionNode value;
+    // Set once the value was not a number, after which it is stored boxed.
+    private boolean generic = false;
+
+    LocalWriteNode(int depth, int slot, ExpressionNode value) {
+        this.depth = depth;
+        this.slot = slot;
+        this.value = adopt(value);
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        if (generic) {
+            var result = value.execute(frame);
+            frame.ancestor(depth).setObject(slot, result);
+            return result;
+        }
+
+        try {
+            return writeDouble(frame);
+        } catch (UnexpectedResultException e) {
+            return e.result();
+        }
+    }
+
+    @Override
+    public double executeDouble(Frame frame) throws UnexpectedResultException {
+        if (generic) {
+            return super.executeDouble(frame);
+        }
+        return writeDouble(frame);
+    }
+
+    @Override
+    public void executeVoid(Frame frame) {
+        if (generic) {
+            execute(frame);
+            return;
+        }
+
+        try {
+            writeDouble(frame);
+        } catch (UnexpectedResultException e) {
+            // Already stored boxed.
+        }
+    }
+
+    private double writeDouble(Frame frame) throws UnexpectedResultException {
+        double result;
+        try {
+            result = value.executeDouble(frame);
+        } catch (UnexpectedResultException e) {
+            generic = true;
+            frame.ancestor(depth).setObject(slot, e.result());
+            throw e;
+        }
+        frame.ancestor(depth).setDouble(slot, result);
+        return result;
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (value == oldChild) {
+            value = newChild;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package lol.smarton.lox.nodes;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class LogicalNodes {
+    private LogicalNodes() {}
+
+    private abstract static class LogicalNode extends ExpressionNode {
+        protected ExpressionNode left;
+        protected ExpressionNode right;
+
+        LogicalNode(ExpressionNode left, ExpressionNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+            if (left == oldChild) {
+                left = newChild;
+            } else if (right == oldChild) {
+                right = newChild;
+            }
+        }
+    }
+
+    static final class And extends LogicalNode {
+        And(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var value = left.execute(frame);
+            return isTruthy(value) ? right.execute(frame) : value;
+        }
+    }
+
+    static final class Or extends LogicalNode {
+        Or(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            var value = left.execute(frame);
+            return isTruthy(value) ? value : right.execute(frame);
+        }
+    }
+}
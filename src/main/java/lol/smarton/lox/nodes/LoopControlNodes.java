@@ -0,0 +1,23 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Metrics;
+
+final class LoopControlNodes {
+    private LoopControlNodes() {}
+
+    static final class Break extends StatementNode {
+        @Override
+        public void execute(Frame frame) {
+            Metrics.controlFlowThrown();
+            throw ControlFlow.Break.INSTANCE;
+        }
+    }
+
+    static final class Continue extends StatementNode {
+        @Override
+        public void execute(Frame frame) {
+            Metrics.controlFlowThrown();
+            throw ControlFlow.Continue.INSTANCE;
+        }
+    }
+}
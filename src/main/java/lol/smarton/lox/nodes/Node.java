@@ -0,0 +1,38 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * Base of the executable tree. Every node knows its parent so that a node
+ * can swap itself for a more specialized version once it has seen the
+ * types flowing through it.
+ */
+public abstract class Node {
+    Node parent;
+
+    protected <T extends Node> T adopt(T child) {
+        if (child != null) {
+            child.parent = this;
+        }
+        return child;
+    }
+
+    /**
+     * Replaces this node in its parent and returns the replacement.
+     */
+    protected <T extends ExpressionNode> T replace(T replacement) {
+        // A detached root, such as an expression typed at the prompt, is
+        // simply specialized again the next time it runs.
+        if (parent != null) {
+            parent.replaceChild((ExpressionNode) this, replacement);
+        }
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    /**
+     * Called by a child expression that rewrites itself. Nodes that hold
+     * expression children must override this.
+     */
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        throw new IllegalStateException(STR."\{getClass().getSimpleName()} has no replaceable children.");
+    }
+}
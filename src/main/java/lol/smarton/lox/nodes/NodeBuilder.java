@@ -0,0 +1,308 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.AstWalker;
+import lol.smarton.lox.Diagnostics;
+import lol.smarton.lox.Output;
+import lol.smarton.lox.Token;
+import lol.smarton.lox.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the syntax tree into an executable node tree, resolving every local
+ * variable to a frame depth and slot on the way.
+ */
+class NodeBuilder implements AstWalker<ExpressionNode, StatementNode> {
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    private static class Scope {
+        final Map<String, Integer> slots = new HashMap<>();
+        // Names whose initializer is still being built.
+        final Map<String, Boolean> defined = new HashMap<>();
+    }
+
+    private final Globals globals;
+    private final Output output;
+    private final Diagnostics diagnostics;
+    private final List<Scope> scopes = new ArrayList<>();
+    private FunctionType currentFunction = FunctionType.NONE;
+
+    NodeBuilder(Globals globals, Output output, Diagnostics diagnostics) {
+        this.globals = globals;
+        this.output = output;
+        this.diagnostics = diagnostics;
+    }
+
+    StatementNode[] build(List<Stmt> statements) {
+        var nodes = new StatementNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = walk(statements.get(i));
+        }
+        return nodes;
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Assign assign) {
+        var value = walk(assign.value());
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var slot = scopes.get(i).slots.get(assign.name().lexeme());
+            if (slot != null) {
+                return new LocalWriteNode(scopes.size() - 1 - i, slot, value);
+            }
+        }
+
+        return new GlobalWriteNode(globals, assign.name(), value);
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Binary binary) {
+        var left = walk(binary.left());
+        var right = walk(binary.right());
+        var operator = binary.operator();
+
+        return switch (operator.type()) {
+            case GREATER -> new ArithmeticNodes.Greater(left, right, operator);
+            case GREATER_EQUAL -> new ArithmeticNodes.GreaterEqual(left, right, operator);
+            case LESS -> new ArithmeticNodes.Less(left, right, operator);
+            case LESS_EQUAL -> new ArithmeticNodes.LessEqual(left, right, operator);
+            case BANG_EQUAL -> new EqualityNodes.NotEqual(left, right, operator);
+            case EQUAL_EQUAL -> new EqualityNodes.Equal(left, right, operator);
+            case PLUS -> new AddNode.Uninitialized(left, right, operator);
+            case MINUS -> new ArithmeticNodes.Subtract(left, right, operator);
+            case SLASH -> new ArithmeticNodes.Divide(left, right, operator);
+            case STAR -> new ArithmeticNodes.Multiply(left, right, operator);
+            default -> throw new IllegalStateException(STR."Unexpected binary operator \{operator.type()}.");
+        };
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Call call) {
+        var callee = walk(call.callee());
+        var arguments = new ExpressionNode[call.arguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = walk(call.arguments().get(i));
+        }
+        return new CallNode(callee, arguments, call.paren());
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Unary unary) {
+        var operand = walk(unary.right());
+
+        return switch (unary.operator().type()) {
+            case MINUS -> new UnaryNodes.Negate(operand, unary.operator());
+            case BANG -> new UnaryNodes.Not(operand);
+            default -> throw new IllegalStateException(STR."Unexpected unary operator \{unary.operator().type()}.");
+        };
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Literal literal) {
+        if (literal.value() instanceof Double number) {
+            return new LiteralNode.Number(number);
+        }
+        return new LiteralNode(literal.value());
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Logical logical) {
+        var left = walk(logical.left());
+        var right = walk(logical.right());
+
+        return switch (logical.operator().type()) {
+            case OR -> new LogicalNodes.Or(left, right);
+            default -> new LogicalNodes.And(left, right);
+        };
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Grouping grouping) {
+        return walk(grouping.expression());
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.ExpressionList expressionList) {
+        var expressions = new ExpressionNode[expressionList.expressions().size()];
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = walk(expressionList.expressions().get(i));
+        }
+        return new SequenceNode(expressions);
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Ternary ternary) {
+        return new TernaryNode(walk(ternary.cond()), walk(ternary.thenBranch()), walk(ternary.elseBranch()));
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Variable variable) {
+        var name = variable.name();
+        if (!scopes.isEmpty() && scopes.getLast().defined.get(name.lexeme()) == Boolean.FALSE) {
+            diagnostics.error(name, "Can't read local variable in its own initializer.");
+        }
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var slot = scopes.get(i).slots.get(name.lexeme());
+            if (slot != null) {
+                return new LocalReadNode(scopes.size() - 1 - i, slot);
+            }
+        }
+
+        return new GlobalReadNode(globals, name);
+    }
+
+    @Override
+    public ExpressionNode walk(Expr.Function function) {
+        return buildFunction("*lambda*", function.params(), function.body());
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Block stmt) {
+        if (!declaresVariables(stmt.statements())) {
+            return new BlockNode(build(stmt.statements()), 0);
+        }
+
+        scopes.add(new Scope());
+        var statements = build(stmt.statements());
+        var scope = scopes.removeLast();
+        return new BlockNode(statements, scope.slots.size());
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Expression stmt) {
+        return new ExpressionStatementNode(walk(stmt.expression()));
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Function stmt) {
+        int slot = declare(stmt.name());
+        define(stmt.name());
+        return defineVariable(stmt.name(), slot, buildFunction(stmt.name().lexeme(), stmt.params(), stmt.body()));
+    }
+
+    @Override
+    public StatementNode walk(Stmt.If stmt) {
+        var condition = walk(stmt.condition());
+        var thenBranch = walk(stmt.thenBranch());
+        var elseBranch = stmt.elseBranch() == null ? null : walk(stmt.elseBranch());
+        return new IfNode(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Print stmt) {
+        return new PrintNode(output, walk(stmt.expression()));
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Return stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            diagnostics.error(stmt.keyword(), "Can't return from top-level code.");
+        }
+
+        return new ReturnNode(stmt.value() == null ? null : walk(stmt.value()));
+    }
+
+    @Override
+    public StatementNode walk(Stmt.Var stmt) {
+        int slot = declare(stmt.name());
+        var value = stmt.initializer() == null ? new LiteralNode(null) : walk(stmt.initializer());
+        define(stmt.name());
+        return defineVariable(stmt.name(), slot, value);
+    }
+
+    @Override
+    public StatementNode walk(Stmt.While stmt) {
+        return new WhileNode(walk(stmt.condition()), walk(stmt.body()));
+    }
+
+    @Override
+    public StatementNode walk(Stmt.For stmt) {
+        // A variable declared by the initializer gets a frame of its own,
+        // around the whole loop, wherever the loop is nested.
+        boolean scoped = stmt.initializer() instanceof Stmt.Var;
+        if (scoped) {
+            scopes.add(new Scope());
+        }
+        var initializer = stmt.initializer() == null ? null : walk(stmt.initializer());
+        var condition = stmt.condition() == null ? null : walk(stmt.condition());
+        var increment = stmt.increment() == null ? null : walk(stmt.increment());
+        var body = walk(stmt.body());
+        int frameSize = scoped ? scopes.removeLast().slots.size() : 0;
+        return new ForNode(initializer, condition, increment, body, frameSize);
+    }
+
+    @Override
+    public StatementNode walk(Stmt.LoopControl stmt) {
+        return switch (stmt.token().type()) {
+            case BREAK -> new LoopControlNodes.Break();
+            default -> new LoopControlNodes.Continue();
+        };
+    }
+
+    private FunctionLiteralNode buildFunction(String name, List<Token> params, List<Stmt> body) {
+        var enclosingFunction = currentFunction;
+        currentFunction = FunctionType.FUNCTION;
+
+        scopes.add(new Scope());
+        for (var param : params) {
+            declare(param);
+            define(param);
+        }
+        var statements = build(body);
+        var scope = scopes.removeLast();
+
+        currentFunction = enclosingFunction;
+        return new FunctionLiteralNode(new FunctionRoot(name, params.size(), statements, scope.slots.size()));
+    }
+
+    private static boolean declaresVariables(List<Stmt> statements) {
+        for (var statement : statements) {
+            if (statement instanceof Stmt.Var || statement instanceof Stmt.Function) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the slot of the new variable, or -1 if it is a global.
+     */
+    private int declare(Token name) {
+        if (scopes.isEmpty()) {
+            return -1;
+        }
+
+        var scope = scopes.getLast();
+        if (scope.slots.containsKey(name.lexeme())) {
+            diagnostics.error(name, "Already a variable with this name in this scope.");
+            return scope.slots.get(name.lexeme());
+        }
+
+        int slot = scope.slots.size();
+        scope.slots.put(name.lexeme(), slot);
+        scope.defined.put(name.lexeme(), false);
+        return slot;
+    }
+
+    private void define(Token name) {
+        if (scopes.isEmpty()) {
+            return;
+        }
+
+        scopes.getLast().defined.put(name.lexeme(), true);
+    }
+
+    private StatementNode defineVariable(Token name, int slot, ExpressionNode value) {
+        if (slot == -1) {
+            return new DefineGlobalNode(globals, name.lexeme(), value);
+        }
+        return new DefineLocalNode(slot, value);
+    }
+}
@@ -0,0 +1,31 @@
+package lol.smarton.lox.nodes;
+
+final class NodeFunction {
+    final FunctionRoot root;
+    final Frame closure;
+
+    NodeFunction(FunctionRoot root, Frame closure) {
+        this.root = root;
+        this.closure = closure;
+    }
+
+    Object call(Object[] arguments) {
+        var frame = new Frame(closure, root.frameSize);
+        frame.setArguments(arguments);
+
+        try {
+            for (var statement : root.body) {
+                statement.execute(frame);
+            }
+        } catch (ControlFlow.Return returnValue) {
+            return returnValue.value;
+        }
+
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return STR."<fn \{root.name}>";
+    }
+}
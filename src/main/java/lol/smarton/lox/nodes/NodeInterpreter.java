@@ -0,0 +1,64 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Clock;
+import lol.smarton.lox.Diagnostics;
+import lol.smarton.lox.Output;
+import lol.smarton.lox.Reporter;
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.ast.Expr;
+import lol.smarton.lox.ast.Stmt;
+
+import java.util.List;
+
+/**
+ * Execution engine over a self-specializing node tree. The tree-walking
+ * {@link lol.smarton.lox.Interpreter} remains the reference for semantics.
+ */
+public class NodeInterpreter {
+    private final Globals globals = new Globals();
+    private final Diagnostics diagnostics;
+    private Output output = Output.of(System.out);
+
+    public NodeInterpreter() {
+        this(new Reporter());
+    }
+
+    public NodeInterpreter(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        globals.define("clock", new Clock());
+    }
+
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    public StatementNode[] build(List<Stmt> statements) {
+        return new NodeBuilder(globals, output, diagnostics).build(statements);
+    }
+
+    public ExpressionNode build(Expr expr) {
+        return new NodeBuilder(globals, output, diagnostics).walk(expr);
+    }
+
+    public void interpret(StatementNode[] statements) {
+        try {
+            for (var statement : statements) {
+                statement.execute(null);
+            }
+        } catch (RuntimeError error) {
+            diagnostics.runtimeError(error);
+        }
+    }
+
+    /**
+     * Evaluates an expression, returning null on a runtime error.
+     */
+    public Object evaluate(ExpressionNode expression) {
+        try {
+            return expression.execute(null);
+        } catch (RuntimeError error) {
+            diagnostics.runtimeError(error);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Output;
+
+final class PrintNode extends StatementNode {
+    private final Output output;
+    private ExpressionNode expression;
+
+    PrintNode(Output output, ExpressionNode expression) {
+        this.output = output;
+        this.expression = adopt(expression);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        output.print(expression.execute(frame));
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (expression == oldChild) {
+            expression = newChild;
+        }
+    }
+}
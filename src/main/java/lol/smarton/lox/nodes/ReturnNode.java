@@ -0,0 +1,24 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.Metrics;
+
+final class ReturnNode extends StatementNode {
+    private ExpressionNode value;
+
+    ReturnNode(ExpressionNode value) {
+        this.value = adopt(value);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        Metrics.controlFlowThrown();
+        throw new ControlFlow.Return(value == null ? null : value.execute(frame));
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (value == oldChild) {
+            value = newChild;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * A comma expression: evaluates every expression and yields the last one.
+ */
+final class SequenceNode extends ExpressionNode {
+    private final ExpressionNode[] expressions;
+
+    SequenceNode(ExpressionNode[] expressions) {
+        this.expressions = expressions;
+        for (var expression : expressions) {
+            adopt(expression);
+        }
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        int last = expressions.length - 1;
+        for (int i = 0; i < last; i++) {
+            expressions[i].executeVoid(frame);
+        }
+        return expressions[last].execute(frame);
+    }
+
+    @Override
+    public double executeDouble(Frame frame) throws UnexpectedResultException {
+        int last = expressions.length - 1;
+        for (int i = 0; i < last; i++) {
+            expressions[i].executeVoid(frame);
+        }
+        return expressions[last].executeDouble(frame);
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        for (int i = 0; i < expressions.length; i++) {
+            if (expressions[i] == oldChild) {
+                expressions[i] = newChild;
+                return;
+            }
+        }
+    }
+}
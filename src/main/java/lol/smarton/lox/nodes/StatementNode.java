@@ -0,0 +1,5 @@
+package lol.smarton.lox.nodes;
+
+public abstract class StatementNode extends Node {
+    public abstract void execute(Frame frame);
+}
@@ -0,0 +1,42 @@
+package lol.smarton.lox.nodes;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class TernaryNode extends ExpressionNode {
+    private ExpressionNode condition;
+    private ExpressionNode thenBranch;
+    private ExpressionNode elseBranch;
+
+    TernaryNode(ExpressionNode condition, ExpressionNode thenBranch, ExpressionNode elseBranch) {
+        this.condition = adopt(condition);
+        this.thenBranch = adopt(thenBranch);
+        this.elseBranch = adopt(elseBranch);
+    }
+
+    @Override
+    public Object execute(Frame frame) {
+        if (isTruthy(condition.execute(frame))) {
+            return thenBranch.execute(frame);
+        }
+        return elseBranch.execute(frame);
+    }
+
+    @Override
+    public double executeDouble(Frame frame) throws UnexpectedResultException {
+        if (isTruthy(condition.execute(frame))) {
+            return thenBranch.executeDouble(frame);
+        }
+        return elseBranch.executeDouble(frame);
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (condition == oldChild) {
+            condition = newChild;
+        } else if (thenBranch == oldChild) {
+            thenBranch = newChild;
+        } else if (elseBranch == oldChild) {
+            elseBranch = newChild;
+        }
+    }
+}
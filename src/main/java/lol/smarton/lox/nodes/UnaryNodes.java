@@ -0,0 +1,59 @@
+package lol.smarton.lox.nodes;
+
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class UnaryNodes {
+    private UnaryNodes() {}
+
+    private abstract static class UnaryNode extends ExpressionNode {
+        protected ExpressionNode operand;
+
+        UnaryNode(ExpressionNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+            if (operand == oldChild) {
+                operand = newChild;
+            }
+        }
+    }
+
+    static final class Negate extends UnaryNode {
+        private final Token operator;
+
+        Negate(ExpressionNode operand, Token operator) {
+            super(operand);
+            this.operator = operator;
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return executeDouble(frame);
+        }
+
+        @Override
+        public double executeDouble(Frame frame) {
+            try {
+                return -operand.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+    }
+
+    static final class Not extends UnaryNode {
+        Not(ExpressionNode operand) {
+            super(operand);
+        }
+
+        @Override
+        public Object execute(Frame frame) {
+            return !isTruthy(operand.execute(frame));
+        }
+    }
+}
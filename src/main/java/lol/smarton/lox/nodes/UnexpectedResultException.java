@@ -0,0 +1,19 @@
+package lol.smarton.lox.nodes;
+
+/**
+ * Thrown by a typed execute method when the value turned out to be of a
+ * different type. Carries the value so that it doesn't have to be computed
+ * again.
+ */
+public final class UnexpectedResultException extends Exception {
+    private final Object result;
+
+    UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+
+    public Object result() {
+        return result;
+    }
+}
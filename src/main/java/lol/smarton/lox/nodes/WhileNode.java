@@ -0,0 +1,33 @@
+package lol.smarton.lox.nodes;
+
+import static lol.smarton.lox.Interpreter.isTruthy;
+
+final class WhileNode extends StatementNode {
+    private ExpressionNode condition;
+    private final StatementNode body;
+
+    WhileNode(ExpressionNode condition, StatementNode body) {
+        this.condition = adopt(condition);
+        this.body = adopt(body);
+    }
+
+    @Override
+    public void execute(Frame frame) {
+        while (isTruthy(condition.execute(frame))) {
+            try {
+                body.execute(frame);
+            } catch (ControlFlow.Continue _) {
+                // Do nothing.
+            } catch (ControlFlow.Break _) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void replaceChild(ExpressionNode oldChild, ExpressionNode newChild) {
+        if (condition == oldChild) {
+            condition = newChild;
+        }
+    }
+}
@@ -5,7 +5,7 @@ import lol.smarton.lox.Token;
 import lol.smarton.lox.TokenType;
 import lol.smarton.lox.ast.*;
 
-public class AstPrinter implements AstWalker<String> {
+public class AstPrinter implements AstWalker<String, Void> {
     public static void main(String[] args) {
         Expr expression = new Expr.Binary(
             new Expr.Unary(
@@ -60,7 +60,7 @@ public class AstPrinter implements AstWalker<String> {
     }
 
     @Override
-    public void walk(Stmt.Block stmt) {
+    public Void walk(Stmt.Block stmt) {
         throw new RuntimeException("Not implemented.");
     }
 
@@ -83,47 +83,47 @@ public class AstPrinter implements AstWalker<String> {
     }
 
     @Override
-    public void walk(Stmt.Print print) {
+    public Void walk(Stmt.Print print) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.Return stmt) {
+    public Void walk(Stmt.Return stmt) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.Expression expression) {
+    public Void walk(Stmt.Expression expression) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.Function stmt) {
+    public Void walk(Stmt.Function stmt) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.If stmt) {
+    public Void walk(Stmt.If stmt) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.Var stmt) {
+    public Void walk(Stmt.Var stmt) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.While stmt) {
+    public Void walk(Stmt.While stmt) {
         throw new RuntimeException("Not implemented");
     }
 
     @Override
-    public void walk(Stmt.For stmt) {
+    public Void walk(Stmt.For stmt) {
         throw new RuntimeException("Not implemented.");
     }
 
     @Override
-    public void walk(Stmt.LoopControl stmt) {
+    public Void walk(Stmt.LoopControl stmt) {
         throw new RuntimeException("Not implemented.");
     }
 
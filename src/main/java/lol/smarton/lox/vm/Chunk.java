@@ -0,0 +1,79 @@
+package lol.smarton.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class Chunk {
+    byte[] code = new byte[64];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+
+    // Run-length encoded line table: pairs of (first code offset, line).
+    private int[] lines = new int[16];
+    private int lineCount = 0;
+
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+    void write(byte b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+        }
+        code[count] = b;
+
+        if (lineCount == 0 || lines[lineCount - 1] != line) {
+            if (lineCount == lines.length) {
+                lines = Arrays.copyOf(lines, lineCount * 2);
+            }
+            lines[lineCount++] = count;
+            lines[lineCount++] = line;
+        }
+
+        count++;
+    }
+
+    void writeShort(int value, int line) {
+        write((byte) ((value >> 8) & 0xff), line);
+        write((byte) (value & 0xff), line);
+    }
+
+    void patchShort(int offset, int value) {
+        code[offset] = (byte) ((value >> 8) & 0xff);
+        code[offset + 1] = (byte) (value & 0xff);
+    }
+
+    /**
+     * Adds a value to the constant pool, reusing the slot of an equal number
+     * or string already in it.
+     */
+    int addConstant(Object value) {
+        if (value instanceof Double || value instanceof String) {
+            var existing = constantIndices.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            constantIndices.put(value, constantCount);
+        }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    int getLine(int offset) {
+        int low = 0;
+        int high = lineCount / 2 - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lines[mid * 2] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return lineCount == 0 ? 0 : lines[low * 2 + 1];
+    }
+}
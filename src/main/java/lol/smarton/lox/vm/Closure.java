@@ -0,0 +1,16 @@
+package lol.smarton.lox.vm;
+
+class Closure {
+    final CompiledFunction function;
+    final Upvalue[] upvalues;
+
+    Closure(CompiledFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,18 @@
+package lol.smarton.lox.vm;
+
+public class CompiledFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+
+    CompiledFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString() {
+        return name == null ? "<script>" : STR."<fn \{name}>";
+    }
+}
@@ -0,0 +1,613 @@
+package lol.smarton.lox.vm;
+
+import lol.smarton.lox.AstWalker;
+import lol.smarton.lox.Diagnostics;
+import lol.smarton.lox.Token;
+import lol.smarton.lox.TokenType;
+import lol.smarton.lox.ast.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static lol.smarton.lox.vm.OpCode.*;
+
+public class Compiler implements AstWalker<Void, Void> {
+    private static final int MAX_OPERAND = 0xffff;
+
+    private enum FunctionType {
+        FUNCTION,
+        SCRIPT
+    }
+
+    private static class Local {
+        final String name;
+        // -1 while the variable's initializer is being compiled.
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private record UpvalueRef(int index, boolean isLocal) {}
+
+    private static class Loop {
+        // Number of locals alive when the loop was entered.
+        final int localCount;
+        // Code offset `continue` jumps back to, or -1 if it comes after the body.
+        final int continueTarget;
+        final List<Integer> continueJumps = new ArrayList<>();
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(int localCount, int continueTarget) {
+            this.localCount = localCount;
+            this.continueTarget = continueTarget;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final CompiledFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        final List<Loop> loops = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, CompiledFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // Slot zero holds the closure being called.
+            locals.add(new Local("", 0));
+        }
+    }
+
+    private final Diagnostics diagnostics;
+    private FunctionState current;
+    private int line = 1;
+
+    public Compiler(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    public CompiledFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new CompiledFunction(null, 0), FunctionType.SCRIPT);
+        for (var statement : statements) {
+            walk(statement);
+        }
+        emitReturn();
+        return current.function;
+    }
+
+    /**
+     * Compiles a lone expression into a script that returns its value.
+     */
+    public CompiledFunction compile(Expr expr) {
+        current = new FunctionState(null, new CompiledFunction(null, 0), FunctionType.SCRIPT);
+        walk(expr);
+        emit(RETURN);
+        return current.function;
+    }
+
+    @Override
+    public Void walk(Expr.Assign assign) {
+        walk(assign.value());
+        line = assign.name().line();
+        setVariable(assign.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Binary binary) {
+        walk(binary.left());
+        walk(binary.right());
+
+        line = binary.operator().line();
+        switch (binary.operator().type()) {
+            case GREATER -> emit(GREATER);
+            case GREATER_EQUAL -> emit(GREATER_EQUAL);
+            case LESS -> emit(LESS);
+            case LESS_EQUAL -> emit(LESS_EQUAL);
+            case BANG_EQUAL -> emit(NOT_EQUAL);
+            case EQUAL_EQUAL -> emit(EQUAL);
+            case PLUS -> emit(ADD);
+            case MINUS -> emit(SUBTRACT);
+            case SLASH -> emit(DIVIDE);
+            case STAR -> emit(MULTIPLY);
+            default -> {} // Unreachable
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Call call) {
+        walk(call.callee());
+        for (var argument : call.arguments()) {
+            walk(argument);
+        }
+
+        line = call.paren().line();
+        emit(CALL);
+        emit((byte) call.arguments().size());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Unary unary) {
+        walk(unary.right());
+
+        line = unary.operator().line();
+        switch (unary.operator().type()) {
+            case MINUS -> emit(NEGATE);
+            case BANG -> emit(NOT);
+            default -> {} // Unreachable
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Literal literal) {
+        switch (literal.value()) {
+            case null -> emit(NIL);
+            case Boolean b -> emit(b ? TRUE : FALSE);
+            default -> emitConstant(literal.value());
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Logical logical) {
+        walk(logical.left());
+
+        line = logical.operator().line();
+        if (logical.operator().type() == TokenType.OR) {
+            int elseJump = emitJump(JUMP_IF_FALSE);
+            int endJump = emitJump(JUMP);
+            patchJump(elseJump);
+            emit(POP);
+            walk(logical.right());
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(JUMP_IF_FALSE);
+            emit(POP);
+            walk(logical.right());
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Grouping grouping) {
+        walk(grouping.expression());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.ExpressionList expressionList) {
+        var expressions = expressionList.expressions();
+        for (int i = 0; i < expressions.size(); i++) {
+            walk(expressions.get(i));
+            if (i < expressions.size() - 1) {
+                emit(POP);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Ternary ternary) {
+        walk(ternary.cond());
+        int elseJump = emitJump(JUMP_IF_FALSE);
+        emit(POP);
+        walk(ternary.thenBranch());
+        int endJump = emitJump(JUMP);
+        patchJump(elseJump);
+        emit(POP);
+        walk(ternary.elseBranch());
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Variable variable) {
+        line = variable.name().line();
+        getVariable(variable.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Expr.Function function) {
+        compileFunction("*lambda*", function.params(), function.body());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Block stmt) {
+        beginScope();
+        for (var statement : stmt.statements()) {
+            walk(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Expression stmt) {
+        walk(stmt.expression());
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Function stmt) {
+        line = stmt.name().line();
+        declareVariable(stmt.name());
+        // A function may refer to itself, so it is usable before its body is compiled.
+        markInitialized();
+        compileFunction(stmt.name().lexeme(), stmt.params(), stmt.body());
+        defineVariable(stmt.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.If stmt) {
+        walk(stmt.condition());
+        int thenJump = emitJump(JUMP_IF_FALSE);
+        emit(POP);
+        walk(stmt.thenBranch());
+
+        int elseJump = emitJump(JUMP);
+        patchJump(thenJump);
+        emit(POP);
+        if (stmt.elseBranch() != null) {
+            walk(stmt.elseBranch());
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Print stmt) {
+        walk(stmt.expression());
+        emit(PRINT);
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Return stmt) {
+        line = stmt.keyword().line();
+        if (current.type == FunctionType.SCRIPT) {
+            diagnostics.error(stmt.keyword(), "Can't return from top-level code.");
+        }
+
+        if (stmt.value() == null) {
+            emitReturn();
+        } else {
+            walk(stmt.value());
+            emit(RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.Var stmt) {
+        line = stmt.name().line();
+        declareVariable(stmt.name());
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        } else {
+            emit(NIL);
+        }
+        defineVariable(stmt.name());
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        walk(stmt.condition());
+
+        int exitJump = emitJump(JUMP_IF_FALSE);
+        emit(POP);
+
+        var loop = new Loop(current.locals.size(), loopStart);
+        current.loops.add(loop);
+        walk(stmt.body());
+        current.loops.removeLast();
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        emit(POP);
+        patchBreaks(loop);
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.For stmt) {
+        // A variable declared by the initializer lives in a scope around the
+        // whole loop and is popped when the loop is done, as in the resolver.
+        beginScope();
+        if (stmt.initializer() != null) {
+            walk(stmt.initializer());
+        }
+
+        int loopStart = current.function.chunk.count;
+        int exitJump = -1;
+        if (stmt.condition() != null) {
+            walk(stmt.condition());
+            exitJump = emitJump(JUMP_IF_FALSE);
+            emit(POP);
+        }
+
+        var loop = new Loop(current.locals.size(), -1);
+        current.loops.add(loop);
+        walk(stmt.body());
+        current.loops.removeLast();
+
+        for (var jump : loop.continueJumps) {
+            patchJump(jump);
+        }
+        if (stmt.increment() != null) {
+            walk(stmt.increment());
+            emit(POP);
+        }
+
+        emitLoop(loopStart);
+        if (exitJump != -1) {
+            patchJump(exitJump);
+            emit(POP);
+        }
+        patchBreaks(loop);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void walk(Stmt.LoopControl stmt) {
+        line = stmt.token().line();
+        var loop = current.loops.getLast();
+
+        // Discard the locals declared inside the loop body without forgetting them,
+        // since the code following this statement is still in their scope.
+        for (int i = current.locals.size() - 1; i >= loop.localCount; i--) {
+            emit(current.locals.get(i).isCaptured ? CLOSE_UPVALUE : POP);
+        }
+
+        switch (stmt.token().type()) {
+            case BREAK -> loop.breakJumps.add(emitJump(JUMP));
+            case CONTINUE -> {
+                if (loop.continueTarget >= 0) {
+                    emitLoop(loop.continueTarget);
+                } else {
+                    loop.continueJumps.add(emitJump(JUMP));
+                }
+            }
+        }
+        return null;
+    }
+
+    private void compileFunction(String name, List<Token> params, List<Stmt> body) {
+        var function = new CompiledFunction(name, params.size());
+        current = new FunctionState(current, function, FunctionType.FUNCTION);
+        current.scopeDepth = 1;
+
+        for (var param : params) {
+            declareVariable(param);
+            markInitialized();
+        }
+        for (var statement : body) {
+            walk(statement);
+        }
+        emitReturn();
+
+        var state = current;
+        current = current.enclosing;
+
+        function.upvalueCount = state.upvalues.size();
+        emit(CLOSURE);
+        emitShort(makeConstant(function));
+        for (var upvalue : state.upvalues) {
+            emit((byte) (upvalue.isLocal() ? 1 : 0));
+            emitShort(upvalue.index());
+        }
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        var locals = current.locals;
+        while (!locals.isEmpty() && locals.getLast().depth > current.scopeDepth) {
+            emit(locals.getLast().isCaptured ? CLOSE_UPVALUE : POP);
+            locals.removeLast();
+        }
+    }
+
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+
+        for (int i = current.locals.size() - 1; i >= 0; i--) {
+            var local = current.locals.get(i);
+            if (local.depth != -1 && local.depth < current.scopeDepth) {
+                break;
+            }
+            if (local.name.equals(name.lexeme())) {
+                diagnostics.error(name, "Already a variable with this name in this scope.");
+            }
+        }
+
+        if (current.locals.size() > MAX_OPERAND) {
+            diagnostics.error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.lexeme(), -1));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) {
+            return;
+        }
+        current.locals.getLast().depth = current.scopeDepth;
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+
+        emit(DEFINE_GLOBAL);
+        emitShort(identifierConstant(name));
+    }
+
+    private void getVariable(Token name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(GET_LOCAL);
+            emitShort(slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(GET_UPVALUE);
+            emitShort(upvalue);
+            return;
+        }
+
+        emit(GET_GLOBAL);
+        emitShort(identifierConstant(name));
+    }
+
+    private void setVariable(Token name) {
+        int slot = resolveLocal(current, name);
+        if (slot != -1) {
+            emit(SET_LOCAL);
+            emitShort(slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name);
+        if (upvalue != -1) {
+            emit(SET_UPVALUE);
+            emitShort(upvalue);
+            return;
+        }
+
+        emit(SET_GLOBAL);
+        emitShort(identifierConstant(name));
+    }
+
+    private int resolveLocal(FunctionState state, Token name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            var local = state.locals.get(i);
+            if (local.name.equals(name.lexeme())) {
+                if (local.depth == -1) {
+                    diagnostics.error(name, "Can't read local variable in its own initializer.");
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (state.enclosing == null) {
+            return -1;
+        }
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        var upvalue = new UpvalueRef(index, isLocal);
+        int existing = state.upvalues.indexOf(upvalue);
+        if (existing != -1) {
+            return existing;
+        }
+
+        state.upvalues.add(upvalue);
+        return state.upvalues.size() - 1;
+    }
+
+    private int identifierConstant(Token name) {
+        return makeConstant(name.lexeme());
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.function.chunk.addConstant(value);
+        if (index > MAX_OPERAND) {
+            diagnostics.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emit(byte b) {
+        current.function.chunk.write(b, line);
+    }
+
+    private void emitShort(int value) {
+        current.function.chunk.writeShort(value, line);
+    }
+
+    private void emitConstant(Object value) {
+        emit(CONSTANT);
+        emitShort(makeConstant(value));
+    }
+
+    private void emitReturn() {
+        emit(NIL);
+        emit(RETURN);
+    }
+
+    private int emitJump(byte instruction) {
+        emit(instruction);
+        emitShort(MAX_OPERAND);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        // -2 to adjust for the bytecode for the jump offset itself.
+        int jump = current.function.chunk.count - offset - 2;
+        if (jump > MAX_OPERAND) {
+            diagnostics.error(line, "Too much code to jump over.");
+        }
+        current.function.chunk.patchShort(offset, jump);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(LOOP);
+
+        int offset = current.function.chunk.count - loopStart + 2;
+        if (offset > MAX_OPERAND) {
+            diagnostics.error(line, "Loop body too large.");
+        }
+        emitShort(offset);
+    }
+
+    private void patchBreaks(Loop loop) {
+        for (var jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package lol.smarton.lox.vm;
+
+/**
+ * Instruction set of the VM. Operands follow the opcode byte; unless noted,
+ * an operand is an unsigned 16-bit big-endian index or offset.
+ */
+final class OpCode {
+    static final byte CONSTANT = 0;         // constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;        // stack slot
+    static final byte SET_LOCAL = 6;        // stack slot
+    static final byte GET_GLOBAL = 7;       // name constant index
+    static final byte DEFINE_GLOBAL = 8;    // name constant index
+    static final byte SET_GLOBAL = 9;       // name constant index
+    static final byte GET_UPVALUE = 10;     // upvalue index
+    static final byte SET_UPVALUE = 11;     // upvalue index
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+    static final byte PRINT = 24;
+    static final byte JUMP = 25;            // forward offset
+    static final byte JUMP_IF_FALSE = 26;   // forward offset, condition is left on the stack
+    static final byte LOOP = 27;            // backward offset
+    static final byte CALL = 28;            // argument count (1 byte)
+    static final byte CLOSURE = 29;         // function constant index, then per upvalue: is-local (1 byte) and index
+    static final byte CLOSE_UPVALUE = 30;
+    static final byte RETURN = 31;
+
+    private OpCode() {}
+}
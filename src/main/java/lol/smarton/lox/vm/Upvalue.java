@@ -0,0 +1,14 @@
+package lol.smarton.lox.vm;
+
+class Upvalue {
+    // Stack slot of the captured variable while it is still open.
+    final int slot;
+    Object closed;
+    boolean isOpen = true;
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -0,0 +1,362 @@
+package lol.smarton.lox.vm;
+
+import lol.smarton.lox.Clock;
+import lol.smarton.lox.Diagnostics;
+import lol.smarton.lox.LoxCallable;
+import lol.smarton.lox.Output;
+import lol.smarton.lox.Reporter;
+import lol.smarton.lox.RuntimeError;
+import lol.smarton.lox.Token;
+import lol.smarton.lox.TokenType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static lol.smarton.lox.Interpreter.isEqual;
+import static lol.smarton.lox.Interpreter.isTruthy;
+import static lol.smarton.lox.vm.OpCode.*;
+
+public class VM {
+    private static final int FRAMES_MAX = 8192;
+
+    private static class CallFrame {
+        Closure closure;
+        int ip;
+        // Stack index of the frame's slot zero.
+        int base;
+    }
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+    private final Diagnostics diagnostics;
+    private Output output = Output.of(System.out);
+
+    public VM() {
+        this(new Reporter());
+    }
+
+    public VM(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+        globals.put("clock", new Clock());
+    }
+
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    public void interpret(CompiledFunction script) {
+        evaluate(script);
+    }
+
+    /**
+     * Runs a script and returns the value it returns, or null on a runtime error.
+     */
+    public Object evaluate(CompiledFunction script) {
+        var closure = new Closure(script);
+        push(closure);
+        pushFrame(closure, 0);
+
+        try {
+            return run();
+        } catch (RuntimeError error) {
+            diagnostics.runtimeError(error);
+            resetStack();
+            return null;
+        }
+    }
+
+    private Object run() {
+        var frame = frames[frameCount - 1];
+        var code = frame.closure.function.chunk.code;
+        var constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+
+        while (true) {
+            switch (code[ip++]) {
+                case CONSTANT -> {
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                }
+                case NIL -> push(null);
+                case TRUE -> push(true);
+                case FALSE -> push(false);
+                case POP -> sp--;
+                case GET_LOCAL -> {
+                    push(stack[frame.base + readShort(code, ip)]);
+                    ip += 2;
+                }
+                case SET_LOCAL -> {
+                    stack[frame.base + readShort(code, ip)] = peek(0);
+                    ip += 2;
+                }
+                case GET_GLOBAL -> {
+                    var name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    var value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw error(frame, ip, STR."Undefined variable '\{name}' 1.");
+                    }
+                    push(value);
+                }
+                case DEFINE_GLOBAL -> {
+                    globals.put((String) constants[readShort(code, ip)], pop());
+                    ip += 2;
+                }
+                case SET_GLOBAL -> {
+                    var name = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    if (!globals.containsKey(name)) {
+                        throw error(frame, ip, STR."Undefined variable '\{name}' 2.");
+                    }
+                    globals.put(name, peek(0));
+                }
+                case GET_UPVALUE -> {
+                    var upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    push(upvalue.isOpen ? stack[upvalue.slot] : upvalue.closed);
+                }
+                case SET_UPVALUE -> {
+                    var upvalue = frame.closure.upvalues[readShort(code, ip)];
+                    ip += 2;
+                    if (upvalue.isOpen) {
+                        stack[upvalue.slot] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                }
+                case EQUAL -> {
+                    var right = pop();
+                    var left = pop();
+                    push(isEqual(left, right));
+                }
+                case NOT_EQUAL -> {
+                    var right = pop();
+                    var left = pop();
+                    push(!isEqual(left, right));
+                }
+                case GREATER -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() > right);
+                }
+                case GREATER_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() >= right);
+                }
+                case LESS -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() < right);
+                }
+                case LESS_EQUAL -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() <= right);
+                }
+                case ADD -> {
+                    var right = pop();
+                    var left = pop();
+                    if (left instanceof Double l && right instanceof Double r) {
+                        push(l + r);
+                    } else if (left instanceof String l && right instanceof String r) {
+                        push(l + r);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                }
+                case SUBTRACT -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() - right);
+                }
+                case MULTIPLY -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    push((double) pop() * right);
+                }
+                case DIVIDE -> {
+                    checkNumberOperands(frame, ip);
+                    var right = (double) pop();
+                    if (right == 0) {
+                        throw error(frame, ip, "Division by 0.");
+                    }
+                    push((double) pop() / right);
+                }
+                case NOT -> push(!isTruthy(pop()));
+                case NEGATE -> {
+                    if (!(peek(0) instanceof Double)) {
+                        throw error(frame, ip, "Operand must be a number.");
+                    }
+                    push(-(double) pop());
+                }
+                case PRINT -> output.print(pop());
+                case JUMP -> ip += readShort(code, ip) + 2;
+                case JUMP_IF_FALSE -> {
+                    if (isTruthy(peek(0))) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                }
+                case LOOP -> ip -= readShort(code, ip) - 2;
+                case CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    if (callValue(peek(argCount), argCount, frame, ip)) {
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                    }
+                }
+                case CLOSURE -> {
+                    var function = (CompiledFunction) constants[readShort(code, ip)];
+                    ip += 2;
+                    var closure = new Closure(function);
+                    push(closure);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = readShort(code, ip);
+                        ip += 2;
+                        closure.upvalues[i] = isLocal
+                            ? captureUpvalue(frame.base + index)
+                            : frame.closure.upvalues[index];
+                    }
+                }
+                case CLOSE_UPVALUE -> {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                }
+                case RETURN -> {
+                    var result = pop();
+                    closeUpvalues(frame.base);
+                    frameCount--;
+                    sp = frame.base;
+                    if (frameCount == 0) {
+                        return result;
+                    }
+
+                    push(result);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                }
+                default -> throw error(frame, ip, "Unknown opcode.");
+            }
+        }
+    }
+
+    /**
+     * Returns true if a new frame was pushed and the dispatch loop has to switch to it.
+     */
+    private boolean callValue(Object callee, int argCount, CallFrame frame, int ip) {
+        if (callee instanceof Closure closure) {
+            if (argCount != closure.function.arity) {
+                throw error(frame, ip, STR."Expected \{closure.function.arity} arguments but got \{argCount}.");
+            }
+            if (frameCount == FRAMES_MAX) {
+                throw error(frame, ip, "Stack overflow.");
+            }
+            pushFrame(closure, sp - argCount - 1);
+            return true;
+        }
+
+        if (callee instanceof LoxCallable function) {
+            if (argCount != function.arity()) {
+                throw error(frame, ip, STR."Expected \{function.arity()} arguments but got \{argCount}.");
+            }
+            var result = function.call(null, Arrays.copyOfRange(stack, sp - argCount, sp));
+            sp -= argCount + 1;
+            push(result);
+            return false;
+        }
+
+        throw error(frame, ip, "Can only call functions and classes.");
+    }
+
+    private void pushFrame(Closure closure, int base) {
+        var frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frameCount++;
+    }
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        var upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.slot == slot) {
+            return upvalue;
+        }
+
+        var created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            var upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.isOpen = false;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private void checkNumberOperands(CallFrame frame, int ip) {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) return;
+        throw error(frame, ip, "Operands must be numbers.");
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        // The instruction that failed is the one just before ip.
+        int line = frame.closure.function.chunk.getLine(ip - 1);
+        return new RuntimeError(new Token(TokenType.EOF, "", null, line), message);
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void push(Object value) {
+        if (sp == stack.length) {
+            stack = Arrays.copyOf(stack, sp * 2);
+        }
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+}